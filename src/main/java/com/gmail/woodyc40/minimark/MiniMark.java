@@ -17,27 +17,80 @@
 
 package com.gmail.woodyc40.minimark;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import javassist.*;
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.Timespan;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
 import org.objectweb.asm.*;
 import org.objectweb.asm.signature.SignatureReader;
 import org.objectweb.asm.signature.SignatureVisitor;
 import oshi.SystemInfo;
 import oshi.hardware.*;
 
-import java.io.DataInputStream;
-import java.io.File;
-import java.io.IOException;
-import java.io.PrintStream;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.*;
 import java.lang.annotation.*;
+import java.lang.management.CompilationMXBean;
 import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
 import java.lang.management.RuntimeMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.text.ParseException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiPredicate;
+import java.util.function.ToDoubleFunction;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * <p>Notes/Lessons learned creating this class:
@@ -100,16 +153,182 @@ public class MiniMark {
     public @interface Measure {
     }
 
+    /**
+     * Tells the JIT how to treat a method in the forks, either a measured method or a helper of the
+     * unit or of one of its nested classes
+     *
+     * <p>Helpers apply to every fork of the unit, a measured method only to its own fork. Applies to
+     * every overload with the same name.</p>
+     *
+     * @author caojohnny
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @Documented
+    public @interface CompilerControl {
+        Mode value();
+
+        /**
+         * What to do with the method, maps to -XX:CompileCommand
+         */
+        enum Mode {
+            /** Always inline the method into its callers */
+            INLINE("inline"),
+            /** Never inline the method, keeps the call overhead in the measurement */
+            DONT_INLINE("dontinline"),
+            /** Never compile the method, so it always runs interpreted */
+            EXCLUDE("exclude");
+
+            private final String command;
+
+            Mode(String command) {
+                this.command = command;
+            }
+        }
+    }
+
+    /**
+     * Adds a method to a weighted mix of operations, which is measured as one benchmark in addition to
+     * the method's own if it also has {@link Measure}
+     *
+     * <p>The methods of a mix are interleaved in one loop, in a fixed shuffled sequence with each
+     * method appearing in proportion to its weight, e.g. 9 reads to every write.</p>
+     *
+     * @author caojohnny
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @Documented
+    public @interface Mix {
+        /** The name of the mix */
+        String value();
+
+        /** How often the method is called relative to the others in the mix */
+        int weight() default 1;
+    }
+
+    /**
+     * Runs a method on its own threads as a role in a thread group, at the same time as the other
+     * roles of the group and on the same instance of the unit, e.g. producers and consumers
+     *
+     * <p>The group is measured as one benchmark in addition to the method's own if it also has
+     * {@link Measure}. The methods must not block, every thread has to see the end of the
+     * measurement.</p>
+     *
+     * @author caojohnny
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    @Documented
+    public @interface Role {
+        /** The name of the thread group */
+        String value();
+
+        /** The threads running the method */
+        int threads() default 1;
+    }
+
+    /**
+     * Marks an int or long field of the unit as the size of the working set in bytes, running every
+     * measured method of the unit once for each size, doubling from {@link #from()} to {@link #to()}
+     *
+     * <p>Setup runs as soon as the field is set, before the warmup, so the working set can be built
+     * there. It also runs before every batch of measurements as usual, so it should only rebuild the
+     * working set if the size changed.</p>
+     *
+     * @author caojohnny
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    @Documented
+    public @interface Sweep {
+        /** The smallest size in bytes */
+        long from() default 4096;
+
+        /** The largest size in bytes, 0 for four times the largest CPU cache */
+        long to() default 0;
+    }
+
+    /**
+     * Fills a field of the unit with elements generated from a fixed seed, the same in every fork
+     * and every run, before setup runs
+     *
+     * <p>The field is a byte, int, long or double array, or a ByteBuffer, IntBuffer, LongBuffer or
+     * DoubleBuffer. The elements are generated once into a file in the fixture directory, which every
+     * fork maps read-only. A buffer is a view of the mapping, an array is copied out of it. Ints and
+     * longs are uniform over the bound, or over every value without one, doubles are uniform from 0
+     * to 1.</p>
+     *
+     * @author caojohnny
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.FIELD)
+    @Documented
+    public @interface Fixture {
+        /** The amount of elements, at most 2GB of them */
+        int length();
+
+        /** The seed the elements are generated from */
+        long seed() default 0xFFD5L;
+
+        /** The elements are from 0 until the bound, 0 for any value */
+        long bound() default 0;
+    }
+
+    /**
+     * When the calls of an open loop are scheduled
+     *
+     * @author caojohnny
+     */
+    public enum Arrivals {
+        /** Evenly spaced */
+        FIXED,
+        /** At exponentially distributed gaps, as independent clients would arrive */
+        POISSON
+    }
+
     /** Used for the setup and teardown runnables when nothing is set */
     private static final Runnable NO_OP = () -> {
     };
     /** A cached version of 100 used to calculate percentiles */
     private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    /** How often in millis to check on a fork that hasn't connected yet */
+    private static final int ACCEPT_POLL = 500;
+    /** How close to the empty baseline a result can be before it is considered eliminated */
+    private static final double BASELINE_TOLERANCE = 1.1D;
+    /** How many cores worth of other work make the machine too busy to trust a result */
+    private static final double NOISE_TOLERANCE = 0.5D;
+    /** The share of the measurement spent in safepoints before a result is considered inflated */
+    private static final double SAFEPOINT_TOLERANCE = 0.05D;
+    /** How long a fork has to exit and finish its safepoint log after reporting, in millis */
+    private static final long LOG_WAIT = 10_000L;
+    /** How long an agent has to send the exit code of a fork that hung up, in millis */
+    private static final long LOST_WAIT = 10_000L;
+    /** The safepoint log line of Java 8 and 11, after the uptime */
+    private static final Pattern STOPPED = Pattern.compile(
+            "Total time for which application threads were stopped: ([0-9.]+) seconds, Stopping threads took: ([0-9.]+) seconds");
+    /** The safepoint log line of Java 13 and later, after the uptime */
+    private static final Pattern SAFEPOINT = Pattern.compile("Safepoint \".*\", .*Reaching safepoint: (\\d+) ns, .*Total: (\\d+) ns");
+    /** A category or the total of an NMT summary diff, with the change in committed memory if there is one */
+    private static final Pattern NMT = Pattern.compile(
+            "^(?:-\\s+(.+?) \\(|(Total): )reserved=\\d+KB(?: [+-]\\d+KB)?, committed=\\d+KB(?: ([+-]\\d+)KB)?");
+    /** The uptime in seconds at the start of a log line, [0.123s] or 0.123: */
+    private static final Pattern UPTIME = Pattern.compile("^\\[?([0-9]+\\.[0-9]+)");
+    /** The calls in each measure of the warmup */
+    private static final int WARMUP_REPS = 100;
+    /** Keeps the OSR-compiled driver loop from inlining the measured loop */
+    private static final String DONT_INLINE_MEASURE = "-XX:CompileCommand=dontinline,*_implInvoker::measure";
+    /** The width of the bars of a sweep's curve */
+    private static final int SWEEP_WIDTH = 40;
 
     /** The iterations to run the profiler */
     private int profileIterations = 500_000_000;
     /** The iterations to run the warmup */
     private int warmupIterations = 100_000;
+    /** The time to spend profiling each method in nanos, 0 to use the profile iterations instead */
+    private long measurementTime;
+    /** The time in millis a fork may run before it is dumped and killed, 0 to wait forever */
+    private long timeout;
 
     /** Insertion order mapping of the group -> benchmarks in that group */
     private final Map<String, Map<String, Mark>> benchmarks = new LinkedHashMap<>();
@@ -117,6 +336,58 @@ public class MiniMark {
     private String string;
     /** Runtime args */
     private String[] args;
+    /** Only benchmarks with a name matching this are run, null to run all of them */
+    private Pattern filter;
+    /** Where generated invokers are kept between runs, null to always generate them */
+    private File cacheDirectory = new File(".minimark", "invokers");
+    /** Where the fixtures of the units are generated to, null to keep them in the temp directory */
+    private File fixtureDirectory = new File(".minimark", "fixtures");
+    /** Where the flight recordings of the forks are written, null to not record */
+    private File flightDirectory;
+    /** The JDK homes to run every benchmark on, by label, empty to use this JVM */
+    private final Map<String, String> jvms = new LinkedHashMap<>();
+    /** The flag sets to run every benchmark with, by name, empty to only use the run args */
+    private final Map<String, List<String>> flagSets = new LinkedHashMap<>();
+    /** The CPUs to pin the forks to in taskset list format, null to let them float */
+    private String affinity;
+    /** Where results are kept with the hash of what they measured, null to always run everything */
+    private File resultStore;
+    /** The stored results, by group, name and environment */
+    private final Properties stored = new Properties();
+    /** Where the class data sharing archives of the forks are kept, null to start forks without one */
+    private File sharingDirectory;
+    /** How many forks to start ahead of time for each environment, 0 to start each one when it's needed */
+    private int warmForks;
+    /** The started forks waiting for a benchmark, by environment */
+    private final Map<Environment, Deque<Launch>> pool = new HashMap<>();
+    /** How many forks of each side of a comparison to run */
+    private int rounds = 10;
+    /** How many fresh forks to run each benchmark in for a single shot, 0 to measure steady state */
+    private int shotForks;
+    /** How many calls each single shot fork times */
+    private int shotCalls;
+    /** Told about each fork and result as the run goes */
+    private final List<Listener> listeners = new ArrayList<>();
+    /** Whether a listener has asked for the rest of the benchmarks to be skipped */
+    private volatile boolean stopped;
+    /** Whether the forks log their safepoints for the parent to read */
+    private boolean safepoints;
+    /** Whether the forks track their native memory around the measurement */
+    private boolean nativeMemory;
+    /** How long to soak each benchmark in nanos instead of the measurement time, 0 to not soak */
+    private long soakTime;
+    /** The length of each window of a soak in nanos */
+    private long soakWindow;
+    /** How the calls of the open loop arrive, null to only measure the closed loop */
+    private Arrivals arrivals;
+    /** The rates of the open loop in calls per second, empty for fractions of its capacity */
+    private double[] rates = new double[0];
+    /** The host:port of each agent to spread the forks over, empty to run every fork here */
+    private final List<String> agents = new ArrayList<>();
+    /** The jar of the classes the forks on the agents need, built once the invokers are prepared */
+    private byte[] bundle;
+    /** The secret shared with the agents, empty if they only listen on loopback */
+    private String agentSecret = Strings.nullToEmpty(System.getenv(Agent.SECRET));
 
     /**
      * Creates a new group which compares the execution time of the methods provided in the units
@@ -139,11 +410,78 @@ public class MiniMark {
     public MiniMark perform(Unit unit) {
         if (string == null) throw new IllegalStateException("Group cannot be null");
 
+        Field sweep = null;
+        for (Field field : unit.getClass().getDeclaredFields()) {
+            if (!field.isAnnotationPresent(Sweep.class)) continue;
+            if (field.getType() != int.class && field.getType() != long.class ||
+                    Modifier.isPrivate(field.getModifiers()) || Modifier.isFinal(field.getModifiers()) ||
+                    Modifier.isStatic(field.getModifiers())) {
+                throw new IllegalStateException("Sweep field must be a non-private, non-final int or long: " + field);
+            }
+            sweep = field;
+        }
+        for (Field field : unit.getClass().getDeclaredFields()) {
+            if (field.isAnnotationPresent(Fixture.class)) Fixtures.check(field);
+        }
+
+        Map<String, Map<String, Integer>> mixes = new TreeMap<>();
+        Map<String, Map<String, Integer>> groups = new TreeMap<>();
         for (Method s : unit.getClass().getDeclaredMethods()) {
+            Mix mix = s.getAnnotation(Mix.class);
+            if (mix != null) {
+                if (mix.weight() <= 0) throw new IllegalArgumentException("Mix weight must be positive: " + s);
+                mixes.computeIfAbsent(mix.value(), k -> new TreeMap<>()).put(s.getName(), mix.weight());
+            }
+            Role role = s.getAnnotation(Role.class);
+            if (role != null) {
+                if (role.threads() <= 0) throw new IllegalArgumentException("Role threads must be positive: " + s);
+                groups.computeIfAbsent(role.value(), k -> new TreeMap<>()).put(s.getName(), role.threads());
+            }
             if (!s.isAnnotationPresent(Measure.class)) continue;
 
             String key = s.getDeclaringClass().getName().replaceAll("\\.", "_") + "_" + s.getName();
-            benchmarks.get(string).put(key, new Mark(key, unit, s.getName()));
+            if (sweep == null) {
+                benchmarks.get(string).put(key, new Mark(key, unit, s.getName()));
+                continue;
+            }
+
+            Sweep range = sweep.getAnnotation(Sweep.class);
+            long to = range.to();
+            if (to <= 0) {
+                Collection<Long> caches = cacheSizes().values();
+                to = caches.isEmpty() ? 64L << 20 : 4 * Collections.max(caches);
+            }
+            for (long size = Math.max(1, range.from()); size <= to; size *= 2) {
+                Mark mark = new Mark(key + "_" + bytes(size), unit, s.getName());
+                mark.sweep = sweep;
+                mark.size = size;
+                mark.swept = key;
+                benchmarks.get(string).put(mark.name, mark);
+            }
+        }
+
+        for (Map.Entry<String, Map<String, Integer>> mix : mixes.entrySet()) {
+            String key = unit.getClass().getName().replaceAll("\\.", "_") + "_" + mix.getKey();
+            if (benchmarks.get(string).containsKey(key)) {
+                throw new IllegalStateException("Mix " + mix.getKey() + " has the name of a measured method");
+            }
+            // The sequence is a byte per op
+            if (mix.getValue().size() > Byte.MAX_VALUE) throw new IllegalStateException("Too many methods in " + key);
+
+            Mark mark = new Mark(key, unit, mix.getKey());
+            mark.mix = mix.getValue();
+            benchmarks.get(string).put(key, mark);
+        }
+
+        for (Map.Entry<String, Map<String, Integer>> group : groups.entrySet()) {
+            String key = unit.getClass().getName().replaceAll("\\.", "_") + "_" + group.getKey();
+            if (benchmarks.get(string).containsKey(key)) {
+                throw new IllegalStateException("Thread group " + group.getKey() + " has the name of another benchmark");
+            }
+
+            Mark mark = new Mark(key, unit, group.getKey());
+            mark.roles = group.getValue();
+            benchmarks.get(string).put(key, mark);
         }
 
         return this;
@@ -162,31 +500,220 @@ public class MiniMark {
 
         Collection<Result> sink = new ArrayList<>();
 
+        List<Mark> selected = new ArrayList<>();
         for (String s : benchmarks.keySet()) {
-            Map<String, Mark> marks = benchmarks.get(s);
-            for (String st : marks.keySet()) {
-                Mark ma = marks.get(st);
-                sink.add(ma.test());
+            for (Mark mark : benchmarks.get(s).values()) {
+                if (isSelected(s, mark)) selected.add(mark);
+            }
+        }
+        List<Environment> environments = environments();
+        stopped = false;
+        loadResults();
+        prepare(selected, environments);
+        fixtures(selected);
+        if (sharingDirectory != null) share(selected, environments);
+
+        List<Mark> remote = new ArrayList<>();
+        for (Mark ma : selected) {
+            if (!agents.isEmpty() && ma.remote()) remote.add(ma);
+        }
+        List<Thread> drivers = drive(remote, environments);
+        for (Mark ma : selected) {
+            if (remote.contains(ma)) continue;
+            // All of the environments back to back, to keep drift out of the comparison
+            for (Environment environment : environments) measure(ma, environment, null);
+        }
+        for (Thread driver : drivers) {
+            try {
+                driver.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
+        // Whatever the agents couldn't run
+        for (Mark ma : remote) {
+            for (Environment environment : environments) {
+                if (ma.results.get(environment) == null) measure(ma, environment, null);
+            }
+        }
+        for (Mark ma : selected) {
+            for (Environment environment : environments) sink.add(ma.results.get(environment));
+        }
+        drain();
+        validate(environments);
+        saveResults(selected);
 
         System.out.println();
         System.out.println("=============================== 8< (Cut here) ===============================");
         System.out.println();
         System.out.println("Results:");
 
+        boolean warned = false;
+        for (Mark mark : selected) {
+            for (Result result : mark.results.values()) {
+                if (!result.warnings.isEmpty()) warned = true;
+            }
+        }
+
+        // One column per environment, compared against the first
+        List<String> names = Lists.newArrayList("Name");
+        if (environments.size() == 1) names.add("Average");
+        else for (Environment environment : environments) names.add(environment.label);
+        if (warned) names.add("Warning");
+
         Table table = new Table();
-        table.setNames("Name", "Average");
+        table.setNames(names.toArray(new String[names.size()]));
         for (String s : benchmarks.keySet()) {
             Map<String, Mark> marks = benchmarks.get(s);
             for (Mark mark : marks.values()) {
-                Result result = mark.result;
-                if (result == null) result = Result.compile(this, mark.name, -1D);
-                result.addValues(table, s);
+                if (!isSelected(s, mark)) continue;
+                Row row = table.createRow().setColumn(0, s + " - " + mark.name);
+
+                Result base = mark.results.get(environments.get(0));
+                // The bytecode is the same in every environment, so its suspicions are only shown once
+                Set<String> warnings = new LinkedHashSet<>(mark.suspicions);
+                for (int i = 0; i < environments.size(); i++) {
+                    Result result = mark.results.get(environments.get(i));
+                    String value = result.format();
+                    if (i > 0 && !result.failed() && !base.failed()) {
+                        value += String.format(" (%+.1f%%)", (result.avg - base.avg) / base.avg * 100);
+                    }
+                    row.setColumn(i + 1, value);
+                    for (String warning : result.warnings) {
+                        if (mark.suspicions.contains(warning)) continue;
+                        warnings.add(environments.size() == 1 ? warning : environments.get(i).label + ": " + warning);
+                    }
+                }
+                if (warned) row.setColumn(environments.size() + 1, String.join("; ", warnings));
             }
         }
         table.print(System.out);
 
+        // Once per pair
+        printSection("Comparisons:", selected, environments, (mark, result) -> mark.pair != null &&
+                !mark.name.endsWith("_B"), (mark, environment, result) -> {
+            Result b = mark.pair.results.get(environment);
+            if (b != null) {
+                System.out.println(label(mark.meName, environment, environments) + ": " + Statistics.paired(result, b));
+            }
+        });
+
+        printSection("Single shots:", selected, environments, (mark, result) -> !result.shots.isEmpty(),
+                (mark, environment, result) -> {
+            System.out.println(label(mark.name, environment, environments) + " over " + result.shots.size() +
+                    " forks, p50 / p90 / max:");
+            int calls = result.shots.get(0).length;
+            for (int i = 0; i < calls; i++) {
+                double[] times = new double[result.shots.size()];
+                double[] loads = new double[result.shots.size()];
+                for (int f = 0; f < times.length; f++) {
+                    times[f] = result.shots.get(f)[i] / 1000D;
+                    loads[f] = result.loads.get(f)[i];
+                }
+                Arrays.sort(times);
+                Arrays.sort(loads);
+                System.out.printf("  %-8s %10.1f / %10.1f / %10.1f us, %5.0f / %5.0f / %5.0f classes loaded%n",
+                        i == 0 ? "create" : "call " + i, percentile(times, 50), percentile(times, 90),
+                        times[times.length - 1], percentile(loads, 50), percentile(loads, 90), loads[loads.length - 1]);
+            }
+        });
+
+        printSection("Mixes:", selected, environments, (mark, result) -> mark.mix != null && !result.failed(),
+                (mark, environment, result) -> {
+            System.out.println(label(mark.name, environment, environments) +
+                    String.format(": %.0f ops/s", 1_000_000_000D / result.avg));
+            int total = 0;
+            for (int weight : mark.mix.values()) total += weight;
+            for (Map.Entry<String, Integer> method : mark.mix.entrySet()) {
+                Double latency = result.methods.get(method.getKey());
+                System.out.println(String.format("  %s (%.1f%%): %s", method.getKey(),
+                        100D * method.getValue() / total, latency == null ? "-" : String.format("%.3f ns", latency)));
+            }
+        });
+
+        printSection("Thread groups:", selected, environments, (mark, result) -> mark.roles != null && !result.failed(),
+                (mark, environment, result) -> {
+            StringBuilder lines = new StringBuilder();
+            double total = 0;
+            for (Map.Entry<String, Integer> role : mark.roles.entrySet()) {
+                Double latency = result.methods.get(role.getKey());
+                // Each thread of the role runs one op per latency
+                double throughput = latency == null || latency == 0 ? 0 : role.getValue() * 1_000_000_000D / latency;
+                total += throughput;
+                lines.append(String.format("  %s (%d threads): %.0f ops/s, %s%n", role.getKey(), role.getValue(),
+                        throughput, latency == null ? "-" : String.format("%.3f ns", latency)));
+            }
+            System.out.println(label(mark.name, environment, environments) + String.format(": %.0f ops/s", total));
+            System.out.print(lines);
+        });
+
+        printSection("Contention:", selected, environments, (mark, result) -> {
+            boolean any = false;
+            for (Contention contention : result.contention.values()) any |= contention.contended();
+            return any;
+        }, (mark, environment, result) -> {
+            System.out.println(label(mark.name, environment, environments) + ":");
+            for (Map.Entry<String, Contention> role : result.contention.entrySet()) {
+                System.out.println("  " + role.getKey() + ": " + role.getValue());
+            }
+            for (Map.Entry<String, Double> monitor : result.monitors.entrySet()) {
+                System.out.println(String.format("  %s: %.1f%% of samples", monitor.getKey(), monitor.getValue() * 100));
+            }
+        });
+
+        printSection("Safepoints:", selected, environments, (mark, result) -> result.safepoints >= 0,
+                (mark, environment, result) -> System.out.println(String.format(
+                        "%s: %d safepoints, %.3f ms paused (%.2f%%), max time to safepoint %.1f us",
+                        label(mark.name, environment, environments), result.safepoints, result.safepointTime / 1_000_000D,
+                        result.window == 0 ? 0D : 100D * result.safepointTime / result.window,
+                        result.timeToSafepoint / 1000D)));
+
+        printSection("Native memory:", selected, environments, (mark, result) -> result.nativeMemory != null,
+                (mark, environment, result) -> {
+            StringBuilder categories = new StringBuilder();
+            for (Map.Entry<String, Long> category : result.nativeMemory.entrySet()) {
+                categories.append(categories.length() == 0 ? "" : ", ")
+                        .append(String.format("%s %+dKB", category.getKey(), category.getValue() / 1024));
+            }
+            System.out.println(label(mark.name, environment, environments) + ": " +
+                    (categories.length() == 0 ? "no change" : categories));
+        });
+
+        printSection("Soak:", selected, environments, (mark, result) -> !result.soak.isEmpty(),
+                (mark, environment, result) -> {
+            System.out.println(String.format("%s: %d windows of %.1f s", label(mark.name, environment, environments),
+                    result.soak.size(), soakWindow / 1e9));
+            printSoak(result.soak);
+        });
+
+        printSection(arrivals == null ? "" : "Open loop (" + arrivals.name().toLowerCase(Locale.ROOT) + " arrivals):",
+                selected, environments, (mark, result) -> !result.rates.isEmpty(), (mark, environment, result) -> {
+            System.out.println(label(mark.name, environment, environments) + ":");
+            printRates(result.rates);
+        });
+
+        Map<String, List<Mark>> sweeps = new LinkedHashMap<>();
+        for (Mark mark : selected) {
+            if (mark.sweep != null) sweeps.computeIfAbsent(mark.swept, k -> new ArrayList<>()).add(mark);
+        }
+        if (!sweeps.isEmpty()) {
+            System.out.println();
+            System.out.println("Working set sweeps:");
+            Map<Integer, Long> caches = cacheSizes();
+            for (Map.Entry<String, List<Mark>> sweep : sweeps.entrySet()) {
+                for (Environment environment : environments) {
+                    System.out.println(label(sweep.getKey(), environment, environments) + ":");
+                    printSweep(sweep.getValue(), environment, caches);
+                }
+            }
+        }
+
+        printSection("Flight recordings:", selected, environments, (mark, result) -> result.profile != null,
+                (mark, environment, result) -> {
+            System.out.println(label(mark.name, environment, environments) + ":");
+            System.out.print(result.profile);
+        });
+
         System.out.println();
         printSystemInfo();
         System.out.println();
@@ -205,644 +732,5872 @@ public class MiniMark {
     }
 
     /**
-     * Finds the percentile
+     * Prints a section after the results table, with the lines of each result it applies to, and
+     * nothing at all if it applies to none of them
      *
-     * @param outOfHundred 90, or whatever percentage you want
-     * @param doubles the data to find the percentile. Must be a TreeMultiset.
-     * @return the percentile
+     * @param title the heading of the section
+     * @param marks the benchmarks
+     * @param environments the environments, in the order to print them
+     * @param shown whether the section applies to the result of a benchmark
+     * @param section prints the lines of a result
      */
-    private static double findPercentile(int outOfHundred, Collection<Double> doubles) {
-        BigDecimal value = BigDecimal.valueOf(outOfHundred);
-        BigDecimal sub = value.multiply(BigDecimal.valueOf(doubles.size()));
-        int idx = sub.divide(HUNDRED, BigDecimal.ROUND_HALF_EVEN).intValue();
-
-        // Essentially - we can't use a List - no ordering
-        // Can't sort - would take too long, and runs out of heap
-        // therefore, we have to do it the long way
-        // and use a sorted collection
-        // Remember to use a List or other collection which allows dupes!!!
-        Iterator<Double> iterator = doubles.iterator();
-        for (int i = 0; i < idx; i++) {
-            Double l = iterator.next();
-            if (i == idx - 1) {
-                return l;
+    private static void printSection(String title, List<Mark> marks, List<Environment> environments,
+                                     BiPredicate<Mark, Result> shown, Section section) {
+        boolean printed = false;
+        for (Mark mark : marks) {
+            for (Environment environment : environments) {
+                Result result = mark.results.get(environment);
+                if (result == null || !shown.test(mark, result)) continue;
+                if (!printed) {
+                    System.out.println();
+                    System.out.println(title);
+                    printed = true;
+                }
+                section.print(mark, environment, result);
             }
         }
-
-        return 0L;
     }
 
     /**
-     * Sets the iterations to warm up the JVM
+     * Names a line of a section, with the environment when there are several
      *
-     * <p>This number is not recommended to be changed. 10.000 and up is good.</p>
-     *
-     * @param warmupIterations the iterations
-     * @return the current instance
+     * @param name the name of the benchmark
+     * @param environment the environment of the line
+     * @param environments the environments of the run
+     * @return the label
      */
-    public MiniMark setWarmupIterations(int warmupIterations) {
-        this.warmupIterations = warmupIterations;
-        return this;
+    private static String label(String name, Environment environment, List<Environment> environments) {
+        return environments.size() == 1 ? name : name + " [" + environment.label + "]";
     }
 
     /**
-     * Sets the iteration to profile the methods
+     * Gets the result of a benchmark in an environment, reusing the stored one or running its forks,
+     * and tells the listeners about it
      *
-     * <p>This number is preferably in the millions or hundred thousands at least</p>
-     *
-     * @param profileIterations the iterations
-     * @return the current instance
-     * @deprecated confusing usage
+     * @param ma the benchmark
+     * @param environment the environment
+     * @param agent the agent to fork on, null to fork here
+     * @return the result, null if the agent was lost before the fork finished
      */
-    @Deprecated public MiniMark setProfileIterations(int profileIterations) {
-        this.profileIterations = profileIterations;
-        return this;
+    private Result measure(Mark ma, Environment environment, String agent) {
+        Result result = ma.results.get(environment);
+        if (result == null && ma.pair != null) {
+            compare(ma, ma.pair, environment);
+            result = ma.results.get(environment);
+        }
+        if (result == null && ma.singleShot()) {
+            List<Result> forks = new ArrayList<>();
+            for (int i = 0; i < shotForks && (forks.isEmpty() || !forks.get(i - 1).failed()); i++) {
+                System.out.println("Single shot " + (i + 1) + " of " + shotForks + " for " + ma.name);
+                forks.add(ma.test(environment));
+            }
+            result = combine(ma, forks);
+            result.environment = environment.label;
+            result.hash = ma.hashes.get(environment);
+            ma.results.put(environment, result);
+        }
+        if (result == null && stopped) {
+            result = Result.fail(this, ma.name, "skipped, the run was stopped");
+            result.environment = environment.label;
+            ma.results.put(environment, result);
+        }
+        if (result == null) {
+            result = ma.test(environment, agent);
+            if (result == null) return null;
+            result.environment = environment.label;
+            result.hash = ma.hashes.get(environment);
+            ma.results.put(environment, result);
+        }
+        for (Listener listener : listeners) {
+            if (result.failed()) listener.failed(result);
+            else listener.completed(result);
+        }
+        return result;
     }
 
     /**
-     * Stalks your computer and prints the information about it using OSHI.
+     * Starts a thread for each agent, which take the benchmarks off a shared queue until it is
+     * empty, so faster agents run more of them
      *
-     * <p>Just kidding, you don't need to call this, but it's helpful if you juset want to know.</p>
+     * @param marks the benchmarks to run on the agents
+     * @param environments the environments to run each of them in
+     * @return the threads
      */
-    public void printSystemInfo() {
-        // Obtains
-        // OS, java version, flags, CPU, disks, RAM, power
-        System.out.println("System info:");
-
-        String os = System.getProperty("os.name");
-        String osVer = System.getProperty("os.version");
-        String osArch = System.getProperty("os.arch");
-        System.out.printf("Running %s version %s arch %s\n", os, osVer, osArch);
-
-        String javaVer = System.getProperty("java.version");
-        String vmVendor = System.getProperty("java.vendor");
-        System.out.printf("Java version %s JVM %s\n", javaVer, vmVendor);
-
-        System.out.print("Java flags: ");
-        RuntimeMXBean runtimeMxBean = ManagementFactory.getRuntimeMXBean();
-        List<String> arguments = runtimeMxBean.getInputArguments();
-        for (String string : arguments) {
-            System.out.print(string + " ");
-        }
-        for (String arg : args) {
-            System.out.print(arg + " ");
+    private List<Thread> drive(List<Mark> marks, List<Environment> environments) {
+        if (marks.isEmpty()) return Collections.emptyList();
+        try {
+            Map<String, byte[]> bytecode = new LinkedHashMap<>();
+            for (String cls : forkClasses(marks)) bytecode.put(cls, Files.readAllBytes(Paths.get(cls + ".class")));
+            bundle = jar(bytecode);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
         }
-        System.out.println();
-
-        SystemInfo info = new SystemInfo();
-        HardwareAbstractionLayer layer = info.getHardware();
-
-        GlobalMemory memory = layer.getMemory();
-        System.out.printf("Memory total %d bytes, usable %d bytes%n", memory.getTotal(), memory.getAvailable());
 
-        Runtime runtime = Runtime.getRuntime();
-        System.out.printf("VM memory free %d bytes, max %d bytes, total %d bytes%n", runtime.freeMemory(),
-                runtime.maxMemory(), runtime.totalMemory());
+        Queue<Mark> queue = new ConcurrentLinkedQueue<>(marks);
+        List<Thread> drivers = new ArrayList<>();
+        for (String agent : agents) {
+            Thread driver = new Thread(() -> {
+                for (Mark mark = queue.poll(); mark != null; mark = queue.poll()) {
+                    if (!Agent.reachable(agent, agentSecret)) {
+                        System.out.println("Agent " + agent + " is unreachable or refused the secret, dropping it");
+                        queue.add(mark);
+                        return;
+                    }
+                    for (Environment environment : environments) {
+                        if (measure(mark, environment, agent) == null) {
+                            // Another agent, or the fallback here, runs what is left of it
+                            System.out.println("Lost agent " + agent + " running " + mark.name + ", dropping it");
+                            queue.add(mark);
+                            return;
+                        }
+                    }
+                }
+            }, "MiniMark agent " + agent);
+            driver.start();
+            drivers.add(driver);
+        }
+        return drivers;
+    }
 
-        CentralProcessor proc = layer.getProcessor();
-        System.out.println("CPU:");
-        System.out.printf("  %s%n", proc.getName());
+    /**
+     * The nearest rank percentile of sorted values
+     *
+     * @param sorted the values, sorted
+     * @param percent the percentile
+     * @return the value
+     */
+    private static double percentile(double[] sorted, double percent) {
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
 
-        HWDiskStore[] stores = layer.getDiskStores();
-        System.out.print("Disks (" + stores.length + "):\n");
-        for (HWDiskStore store : stores) {
-            System.out.printf("  %s %s size %d bytes%n",
-                    store.getModel(), store.getName(), store.getSize());
+    /**
+     * Prints the results of a sweep as a curve, with the size of each CPU cache marked where the
+     * working set outgrows it
+     *
+     * @param marks the sizes of the sweep, smallest first
+     * @param environment the environment to print the results of
+     * @param caches the size of each cache level
+     */
+    private static void printSweep(List<Mark> marks, Environment environment, Map<Integer, Long> caches) {
+        double max = 0;
+        for (Mark mark : marks) {
+            Result result = mark.results.get(environment);
+            if (result != null && !result.failed()) max = Math.max(max, result.avg);
         }
 
-        PowerSource[] sources = layer.getPowerSources();
-        System.out.println("PSUs (" + sources.length + "):");
-        for (PowerSource source : sources) {
-            System.out.printf("  %s: remaining %f, time left %f%n", source.getName(), source.getRemainingCapacity(),
-                    source.getTimeRemaining());
+        Iterator<Map.Entry<Integer, Long>> levels = caches.entrySet().iterator();
+        Map.Entry<Integer, Long> level = levels.hasNext() ? levels.next() : null;
+        for (Mark mark : marks) {
+            while (level != null && mark.size > level.getValue()) {
+                System.out.printf("  %10s L%d %s%n", "", level.getKey(), bytes(level.getValue()));
+                level = levels.hasNext() ? levels.next() : null;
+            }
+
+            Result result = mark.results.get(environment);
+            if (result == null) continue;
+            int bar = result.failed() || max == 0 ? 0 : (int) Math.round(result.avg / max * SWEEP_WIDTH);
+            System.out.printf("  %10s |%-" + SWEEP_WIDTH + "s| %s%n", bytes(mark.size),
+                    String.join("", Collections.nCopies(bar, "#")), result.format());
         }
     }
 
-    /** The dependencies already loaded by the benchmark */
-    private final Set<String> depped = new HashSet<>();
-
     /**
-     * Represents a test of a given method
+     * The size of the data and unified caches of the first CPU, which OSHI doesn't provide, read
+     * from sysfs on Linux
      *
-     * @author caojohnny
+     * @return the size in bytes of each cache level, empty if unknown
      */
-    private class Mark {
-        private final String name;
-        private final Unit unit;
-        private final String meName;
-        private String invoker;
-        private Result result;
+    static Map<Integer, Long> cacheSizes() {
+        Map<Integer, Long> caches = new TreeMap<>();
+        File[] indices = new File("/sys/devices/system/cpu/cpu0/cache").listFiles((dir, name) -> name.startsWith("index"));
+        if (indices == null) return caches;
 
-        public Mark(String name, Unit unit, String meName) {
-            this.name = name;
-            this.unit = unit;
-            this.meName = meName;
+        for (File index : indices) {
             try {
-                try {
-                    instrument();
-                } catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
-                    e.printStackTrace();
-                }
-            } catch (NotFoundException | CannotCompileException | NoSuchMethodException e) {
-                e.printStackTrace();
+                String type = new String(Files.readAllBytes(new File(index, "type").toPath()), StandardCharsets.UTF_8).trim();
+                if (type.equals("Instruction")) continue;
+
+                int level = Integer.parseInt(new String(Files.readAllBytes(new File(index, "level").toPath()),
+                        StandardCharsets.UTF_8).trim());
+                // e.g. 48K or 32M
+                String size = new String(Files.readAllBytes(new File(index, "size").toPath()), StandardCharsets.UTF_8).trim();
+                char unit = size.charAt(size.length() - 1);
+                long bytes = Character.isDigit(unit) ? Long.parseLong(size) :
+                        Long.parseLong(size.substring(0, size.length() - 1)) << (unit == 'K' ? 10 : unit == 'M' ? 20 : 30);
+                caches.put(level, bytes);
+            } catch (IOException | RuntimeException e) {
+                // Not every index has every file
             }
         }
+        return caches;
+    }
 
-        /**
-         * Not really instrumentation... Rather creating a new synthetic class to execute in another JVM
-         *
-         * @throws NotFoundException
-         * @throws CannotCompileException
-         * @throws NoSuchMethodException
-         * @throws IllegalAccessException
-         * @throws InvocationTargetException
-         * @throws InstantiationException
-         */
-        private void instrument() throws NotFoundException, CannotCompileException, NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException {
-            ClassPool classPool = ClassPool.getDefault();
-            CtClass superclass = classPool.get(unit.getClass().getName());
-            CtClass file = classPool.makeClass(unit.getClass().getPackage().getName() + ".Benchmark_" + name + "_implInvoker",
-                    superclass);
-            invoker = file.getName();
+    /**
+     * Formats a size in bytes with the largest unit it is a multiple of
+     *
+     * @param bytes the size
+     * @return the size, e.g. 48KB
+     */
+    static String bytes(long bytes) {
+        if (bytes >= 1L << 30 && bytes % (1L << 30) == 0) return (bytes >> 30) + "GB";
+        if (bytes >= 1L << 20 && bytes % (1L << 20) == 0) return (bytes >> 20) + "MB";
+        if (bytes >= 1L << 10 && bytes % (1L << 10) == 0) return (bytes >> 10) + "KB";
+        return bytes + "B";
+    }
 
-            CtClass benchmark = classPool.get(MiniMark.class.getName());
-            CtClass unit = classPool.get(Unit.class.getName());
-            CtClass result = classPool.get(Result.class.getName());
+    /**
+     * Flags results that are too fast to be real, usually because the JIT eliminated or folded the
+     * code that was supposed to be measured
+     *
+     * <p>Each result is checked against the empty baseline of its group (any measured method with
+     * an empty body), the cost of the timer itself and one CPU cycle, and the bytecode suspicions
+     * found while preparing are added.</p>
+     *
+     * @param environments the environments the benchmarks ran in
+     */
+    private void validate(List<Environment> environments) {
+        long freq = new SystemInfo().getHardware().getProcessor().getVendorFreq();
+        // Unknown frequency, assume a CPU faster than anything around
+        double cycle = freq > 0 ? 1_000_000_000D / freq : 0.2D;
 
-            // javassist bug, too lazy to test if it works on GA 20
-            CtConstructor constructor = CtNewConstructor.make("public " + file.getSimpleName() + "() {}", file);
-            file.addConstructor(constructor);
+        for (Environment environment : environments) for (String s : benchmarks.keySet()) {
+            Map<String, Mark> marks = benchmarks.get(s);
 
-            CtMethod warmup;
-            CtMethod measure;
+            double baseline = Double.MAX_VALUE;
+            for (Mark mark : marks.values()) {
+                Result result = mark.results.get(environment);
+                if (mark.empty && result != null && !result.failed()) {
+                    baseline = Math.min(baseline, result.avg);
+                }
+            }
 
-            // Make it easier and not need to return null for no reason... resulting in this boilerplate...
-            if (this.unit.getClass().getDeclaredMethod(meName).getReturnType().equals(void.class)) {
-                warmup = CtNewMethod.make("public long warmup() {\n" +
-                        "int done = 0;\n" +
-                        "long start = System.nanoTime();\n" +
-                        "do {\n" +
-                        "    super." + meName + "();\n" +
-                        "    done += 1;\n" +
-                        "} while (done < " + warmupIterations + ");\n" +
-                        "long end = System.nanoTime();\n" +
-                        "long elapsed = end - start;\n" +
-                        "return (long) (elapsed / " + warmupIterations + ");\n" +
-                        "}\n", file);
+            for (Mark mark : marks.values()) {
+                Result result = mark.results.get(environment);
+                if (result == null || !isSelected(s, mark)) continue;
+                result.warnings.addAll(mark.suspicions);
+                if (result.failed() || mark.empty) continue;
 
-                measure = CtNewMethod.make("public long measure(int reps) {" +
-                        "int done = 0;\n" +
-                        "long start = System.nanoTime();\n" +
-                        "do {\n" +
-                        "    super." + meName + "();\n" +
-                        "} while (++done < reps);\n" +
-                        "long end = System.nanoTime();" +
-                        "return (long) (end - start);}", file);
+                if (baseline != Double.MAX_VALUE && result.avg <= baseline * BASELINE_TOLERANCE) {
+                    result.warnings.add(String.format("no slower than empty baseline (%.3f ns)", baseline));
+                }
+                if (result.avg < cycle) {
+                    result.warnings.add(String.format("faster than a CPU cycle (%.3f ns)", cycle));
+                }
+                // Each batch is timed once, so this is how much of each op is the timer itself
+                double timer = result.ops > 0 ? (double) result.resolution * result.batches / result.ops : 0;
+                if (timer > result.avg / 2) {
+                    result.warnings.add(String.format("within timer resolution (%.3f ns/op)", timer));
+                }
+            }
+        }
+    }
+
+    /**
+     * Every combination of the JVMs and flag sets, or just this JVM with the run args if there is no
+     * matrix
+     *
+     * @return the environments to run each benchmark in
+     */
+    private List<Environment> environments() {
+        Map<String, String> homes = jvms;
+        if (homes.isEmpty()) homes = Collections.singletonMap("", System.getProperty("java.home"));
+        Map<String, List<String>> sets = flagSets;
+        if (sets.isEmpty()) sets = Collections.singletonMap("", Collections.emptyList());
+
+        List<Environment> environments = new ArrayList<>();
+        for (Map.Entry<String, String> home : homes.entrySet()) {
+            for (Map.Entry<String, List<String>> set : sets.entrySet()) {
+                String label = (home.getKey() + " " + set.getKey()).trim();
+                String suffix = environments.isEmpty() && homes.size() * sets.size() == 1 ? "" : "@" + environments.size();
+                environments.add(new Environment(label.isEmpty() ? "default" : label,
+                        jvms.isEmpty() ? "" : home.getValue(), home.getValue(),
+                        set.getValue(), suffix));
+            }
+        }
+        return environments;
+    }
+
+    /**
+     * Atomically writes the bytes to the given file
+     *
+     * @param file the file
+     * @param bytes the bytes
+     * @throws IOException ...
+     */
+    private static void store(File file, byte[] bytes) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        Files.write(tmp.toPath(), bytes);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the version of a JDK from its release file, the only way to tell without starting it
+     *
+     * @param javaHome the Java home, Java 8 homes are the jre inside of the jdk
+     * @return the JAVA_VERSION, e.g. 1.8.0_392 or 11.0.21, null if unknown
+     */
+    private static String javaVersion(String javaHome) {
+        File release = new File(javaHome, "release");
+        if (!release.exists()) release = new File(new File(javaHome).getAbsoluteFile().getParentFile(), "release");
+        if (!release.exists()) return null;
+
+        try {
+            Properties properties = new Properties();
+            try (InputStream in = new FileInputStream(release)) {
+                properties.load(in);
+            }
+            String version = properties.getProperty("JAVA_VERSION");
+            return version == null ? null : version.replace("\"", "");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * The feature release of a JAVA_VERSION, e.g. 8 for 1.8.0_392
+     *
+     * @param version the version, may be null
+     * @return the release, 0 if unknown
+     */
+    private static int feature(String version) {
+        if (version == null) return 0;
+        if (version.startsWith("1.")) version = version.substring(2);
+
+        int end = 0;
+        while (end < version.length() && Character.isDigit(version.charAt(end))) end++;
+        return end == 0 ? 0 : Integer.parseInt(version.substring(0, end));
+    }
+
+    /**
+     * Adds up the safepoints in a fork's log that ended in the measurement window
+     *
+     * @param log the safepoint log
+     * @param start the uptime in millis the measurement started at
+     * @param end the uptime in millis the measurement ended at
+     * @return the count, the total pause in nanos and the longest time to safepoint in nanos
+     * @throws IOException if the log can't be read
+     */
+    private static long[] safepoints(File log, long start, long end) throws IOException {
+        long[] total = new long[3];
+        for (String line : Files.readAllLines(log.toPath(), StandardCharsets.UTF_8)) {
+            Matcher uptime = UPTIME.matcher(line);
+            if (!uptime.find()) continue;
+            double at = Double.parseDouble(uptime.group(1)) * 1000;
+            if (at < start || at > end) continue;
+
+            long pause;
+            long reaching;
+            Matcher matcher = SAFEPOINT.matcher(line);
+            if (matcher.find()) {
+                reaching = Long.parseLong(matcher.group(1));
+                pause = Long.parseLong(matcher.group(2));
+            } else if ((matcher = STOPPED.matcher(line)).find()) {
+                pause = (long) (Double.parseDouble(matcher.group(1)) * 1_000_000_000D);
+                reaching = (long) (Double.parseDouble(matcher.group(2)) * 1_000_000_000D);
             } else {
-                warmup = CtNewMethod.make("public long warmup() {\n" +
-                        "int done = 0;\n" +
-                        "long start = System.nanoTime();\n" +
-                        "do {\n" +
-                        "    op.op(super." + meName + "());\n" +
-                        "    done += 1;\n" +
-                        "} while (done < " + warmupIterations + ");\n" +
-                        "long end = System.nanoTime();\n" +
-                        "long elapsed = end - start;\n" +
-                        "return (long) (elapsed / " + warmupIterations + ");\n" +
-                        "}\n", file);
-                measure = CtNewMethod.make("public long measure(int reps) {" +
-                        "int done = 0;\n" +
-                        "long start = System.nanoTime();\n" +
-                        "do {\n" +
-                        "    op.op(super." + meName + "());\n" +
-                        "} while (++done < reps);\n" +
-                        "long end = System.nanoTime();" +
-                        "return (long) (end - start);}", file);
+                continue;
             }
-            file.addMethod(warmup);
-            file.addMethod(measure);
+            total[0]++;
+            total[1] += pause;
+            total[2] = Math.max(total[2], reaching);
+        }
+        return total;
+    }
 
-            CtMethod method = CtNewMethod.make("public void doTest() {java.io.DataOutputStream stream = null;\n" +
-                    "java.net.Socket socket = null;\n" +
-                    "try {System.out.println(\"Starting test " + name + "\");\n" +
-                    "System.out.println();\n" +
-                    "System.out.println(\"Warming up " + name + "\");\n" +
-                    "long warmTime = warmup();\n" +
-                    "System.out.println(\"Finished warmup for " + name + "\");\n" +
-                    "System.out.println();\n" +
+    /**
+     * Prints the latency percentiles at each rate of an open loop, and where the knee is
+     *
+     * @param rates the rates, slowest first
+     */
+    private static void printRates(List<Rate> rates) {
+        System.out.println(String.format("  %12s %12s %10s %10s %10s %10s %10s",
+                "target/s", "achieved/s", "p50 ns", "p90 ns", "p99 ns", "p99.9 ns", "max ns"));
+        for (Rate rate : rates) {
+            System.out.println(String.format("  %12.0f %12.0f %10d %10d %10d %10d %10d%s", rate.target(), rate.achieved(),
+                    rate.median(), rate.p90(), rate.p99(), rate.p999(), rate.max(), rate.sustained() ? "" : " (not sustained)"));
+        }
+        int knee = Rate.knee(rates);
+        if (knee < 0) {
+            System.out.println("  latency is already up at the slowest rate");
+        } else if (knee == rates.size() - 1) {
+            System.out.println(String.format("  no knee up to %.0f/s", rates.get(knee).target()));
+        } else {
+            Rate after = rates.get(knee + 1);
+            System.out.println(String.format("  knee at %.0f/s, p99 is %d ns at %.0f/s%s", rates.get(knee).target(),
+                    after.p99(), after.target(), after.sustained() ? "" : ", which can't be kept up"));
+        }
+    }
 
-                    "socket = new java.net.Socket(\"localhost\", 5000);\n" +
-                    "stream = new java.io.DataOutputStream(socket.getOutputStream());\n" +
-                    "System.out.println(\"Starting profile for " + name + "\");\n" +
+    /**
+     * Prints the trend of each series of a soak, and the compilations over it
+     *
+     * @param windows the windows of the soak
+     */
+    private static void printSoak(List<Window> windows) {
+        if (windows.size() >= 3) {
+            double[] perOp = Statistics.trend(Window.series(windows, Window::perOp));
+            System.out.println(String.format("  ns/op: %.3f to %.3f, %+.1f%% (p = %.4f)",
+                    perOp[0], perOp[1], Window.change(perOp) * 100, perOp[2]));
+            double[] heap = Statistics.trend(Window.series(windows, Window::heap));
+            System.out.println(String.format("  heap after GC: %.1f MB to %.1f MB, %+.1f%% (p = %.4f)",
+                    heap[0] / (1 << 20), heap[1] / (1 << 20), Window.change(heap) * 100, heap[2]));
+            double[] code = Statistics.trend(Window.series(windows, Window::codeCache));
+            System.out.println(String.format("  code cache: %.1f MB to %.1f MB of %.1f MB, %+.1f%% (p = %.4f)",
+                    code[0] / (1 << 20), code[1] / (1 << 20), windows.get(windows.size() - 1).codeCacheMax() / (double) (1 << 20),
+                    Window.change(code) * 100, code[2]));
+        } else {
+            System.out.println("  too few windows for a trend");
+        }
 
-                    /*
-                    In order to get a quantifiable time
-                           in the case that warmTime, which is the time
-                           taken for each operation in the warmup to complete,
-                           is less than the granularity or latency value
-                           for the system clock, we need to iterate a few
-                           times and get the value of that. The reps is calculated
-                           by the amount of times the operation will complete before
-                           the system clock updates, given a generous 100 ns.
-                    */
-                    "\n" +
-                    "long nanoAcc = nanoAccuracy();\n" +
-                    "int reps = calcIterations(warmTime, nanoAcc, 0);\n" +
-                    "\n" +
-                    // Do not divide this number
-                    // attempting to do so will result in a massive deviation of the
-                    // actual time due to rounding retardation
-                    // Therefore pass this raw to the socket pipeline
-                    "java.math.BigDecimal totalTime = new java.math.BigDecimal(0);\n" +
-                    "int done = 0;\n" +
+        long compiles = 0;
+        long invalidations = 0;
+        long late = 0;
+        long compileTime = 0;
+        for (int i = 0; i < windows.size(); i++) {
+            Window window = windows.get(i);
+            compiles += Math.max(0L, window.compiles());
+            invalidations += Math.max(0L, window.invalidations());
+            if (i >= windows.size() / 4) late += Math.max(0L, window.invalidations());
+            compileTime += Math.max(0L, window.compileTime());
+        }
+        if (windows.get(0).compiles() < 0) {
+            System.out.println(String.format("  no compiler counters, %d ms compiling", compileTime));
+        } else {
+            System.out.println(String.format("  %d compiles taking %d ms, %d invalidations, %d after the first quarter",
+                    compiles, compileTime, invalidations, late));
+        }
+    }
 
-                    "do {\n" +
-                    "    long time = 0L;\n" +
-                    "    int finished = 0;\n" +
-                    "    setup.run();\n" +
-                    "    do {\n" +
-                    "        reps++;\n" +
-                    // The determination method breaks very often, requiring this check
-                    "        if (reps + done >= " + profileIterations + ")\n" +
-                    "            reps = 1;\n" +
-                    "        time = measure(reps);\n" +
-                    "        finished = reps;\n" +
-                    // Calculate the reps for the next measurement loop
-                    "        reps = calcIterations(time / reps, nanoAcc = nanoAccuracy(), (" + profileIterations + " - (done + finished)) - 1);\n" +
-                    "    } while (time <= nanoAcc);\n" +
-                    "    teardown.run();\n" +
-                    "    totalTime = totalTime.add(java.math.BigDecimal.valueOf(time));\n" +
-                    "    done += finished;\n" +
-                    "} while (done < " + profileIterations + ");\n" +
+    /**
+     * Reads the change in committed memory of each category out of an NMT summary diff
+     *
+     * @param diff the output of VM.native_memory summary.diff
+     * @return the change in bytes of each category that changed and of the total, by category
+     */
+    private static Map<String, Long> nativeMemory(String diff) {
+        Map<String, Long> categories = new LinkedHashMap<>();
+        for (String line : diff.split("\n")) {
+            Matcher matcher = NMT.matcher(line);
+            if (matcher.find() && matcher.group(3) != null) {
+                String category = matcher.group(1) == null ? matcher.group(2) : matcher.group(1).trim();
+                categories.put(category, Long.parseLong(matcher.group(3)) * 1024);
+            }
+        }
+        return categories;
+    }
 
-                    "op = null;\n" +
-                    "stream.writeDouble(totalTime.doubleValue());\n" +
-                    "System.out.println(\"Finished testing of " + name + "\");\n" +
-                    "System.out.println();\n" +
-                    "System.out.println(\"Done test for " + name + "\");\n" +
-                    "System.out.println();\n" +
-                    "} catch (Exception e) {\n" +
-                    "    e.printStackTrace();\n" +
-                    "    if (stream != null) {\n" +
-                    "        stream.writeDouble(-1D);\n" +
-                    "    }\n" +
-                    "    if (socket != null) socket.close();\n" +
-                    "} finally {\n" +
-                    "    if (socket != null) socket.close();\n" +
-                    "}}", file);
-            file.addMethod(method);
+    /**
+     * Finds a tool such as jstack in the given Java home, Java 8 homes are the jre inside of the jdk
+     *
+     * @param javaHome the Java home
+     * @param tool the name of the tool
+     * @return the tool, or null if the home isn't a JDK
+     */
+    private static File jdkTool(String javaHome, String tool) {
+        String s = System.getProperty("os.name").contains("Windows") ? ".exe" : "";
+        File home = new File(javaHome);
+        File file = new File(home, "bin" + File.separator + tool + s);
+        if (!file.exists()) file = new File(home.getParentFile(), "bin" + File.separator + tool + s);
+        return file.exists() ? file : null;
+    }
 
-            CtMethod main = CtNewMethod.make("public static void main(String[] args) {\n" +
-                    invoker + " test = new " + invoker + "();\n" +
-                    "int done = 0;\n" + // Settle in the JVM, warmups may not be enough to completely
-                                        // transition the VM into ready state
-                    "System.out.println(\"Settling VM for " + name + "\");\n" +
-                    // Hashcode is a good, fast, psn number
-                    "for (int i = 0; i < 5000000; i++) { done += new Object().hashCode(); }\n" +
-                    // hi jit
-                    "if (done / 2 == 6) { System.out.println(); }\n" +
-                    // extra runs to take up time
-                    "long time = System.currentTimeMillis();" +
-                    "do {" +
-                    "test.warmup();" +
-                    "} while (System.currentTimeMillis() - time < 2000L);" +
-                    "test.doTest();\n" +
-                    "}", file);
-            file.addMethod(main);
+    /**
+     * The classes a fork of the working directory can load, the dependencies written there and the
+     * invokers of the benchmarks
+     *
+     * @param marks the prepared benchmarks
+     * @return the internal names of the classes, sorted
+     */
+    private List<String> forkClasses(List<Mark> marks) {
+        List<String> classes = new ArrayList<>(depped);
+        for (Mark mark : marks) {
+            if (mark.invoker != null && mark.classes == null) classes.add(mark.invoker.replace('.', '/'));
+        }
+        Collections.sort(classes);
+        return classes;
+    }
 
-            Class<?> $result = Result.class;
-            file.toClass($result.getClassLoader(), $result.getProtectionDomain());
-            try {
-                file.writeFile();
-
-                ClassReader reader = new ClassReader(file.toBytecode());
-                DependencyVisitor visitor = new DependencyVisitor();
-                reader.accept(visitor, 0);
-                Set<String> classes = visitor.getClasses();
-                for (String string : classes) {
-                    if (string.equals(MiniMark.class.getName().replaceAll("/", "\\.")))
-                        break;
-                    getDep(string);
+    /**
+     * Packs classes into a jar
+     *
+     * @param bytecode the bytecode of each class by internal name
+     * @return the jar
+     * @throws IOException ...
+     */
+    private static byte[] jar(Map<String, byte[]> bytecode) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : bytecode.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Builds the class data sharing archive of the prepared classes for each environment, unless
+     * one was already built for the same classes
+     *
+     * @param marks the prepared benchmarks
+     * @param environments the environments they run in
+     */
+    private void share(List<Mark> marks, List<Environment> environments) {
+        List<String> invokers = new ArrayList<>();
+        for (Mark mark : marks) {
+            if (mark.invoker != null && mark.classes == null) invokers.add(mark.invoker);
+        }
+
+        try {
+            Hasher hasher = Hashing.sha256().newHasher();
+            Map<String, byte[]> bytecode = new LinkedHashMap<>();
+            for (String cls : forkClasses(marks)) {
+                byte[] bytes = Files.readAllBytes(Paths.get(cls + ".class"));
+                bytecode.put(cls, bytes);
+                hasher.putString(cls, StandardCharsets.UTF_8);
+                hasher.putBytes(bytes);
+            }
+            String key = hasher.hash().toString();
+
+            // The archive is only valid for the exact jar it was dumped with, so it is never rewritten
+            File jar = new File(sharingDirectory, key + ".jar").getAbsoluteFile();
+            if (!jar.exists()) store(jar, jar(bytecode));
+
+            for (Environment environment : environments) {
+                if (feature(javaVersion(environment.javaHome)) < 11) {
+                    System.out.println("Class data sharing needs Java 11, " + environment.label +
+                            " forks start without it");
+                    continue;
+                }
+
+                Hasher jvm = Hashing.sha256().newHasher();
+                jvm.putString(environment.javaHome, StandardCharsets.UTF_8);
+                for (String arg : args) jvm.putString(arg, StandardCharsets.UTF_8);
+                for (String flag : environment.flags) jvm.putString(flag, StandardCharsets.UTF_8);
+                File archive = new File(sharingDirectory, key + "-" + jvm.hash().toString().substring(0, 16) + ".jsa")
+                        .getAbsoluteFile();
+                if (archive.exists() || dump(environment, jar, archive, invokers)) {
+                    environment.classpath = Lists.newArrayList("-XX:SharedArchiveFile=" + archive,
+                            "-classpath", jar.getPath());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Lists the classes a fork loads for the invokers, then dumps them into an archive
+     *
+     * <p>Loading an invoker loads its unit and the harness classes the fork uses.</p>
+     *
+     * @param environment the environment the archive is for
+     * @param jar the jar the classes are in
+     * @param archive the archive
+     * @param invokers the names of the invokers
+     * @return true if the archive was dumped
+     * @throws IOException ...
+     */
+    private boolean dump(Environment environment, File jar, File archive, List<String> invokers) throws IOException {
+        System.out.println("Dumping class data sharing archive for " + environment.label);
+        File list = new File(archive.getPath() + ".classlist");
+        try {
+            List<String> load = Lists.newArrayList("-Xshare:off", "-XX:DumpLoadedClassList=" + list,
+                    "-classpath", jar.getPath(), Fork.class.getName(), Fork.LOAD);
+            load.addAll(invokers);
+            if (!quietly(java(environment, load))) return false;
+
+            File tmp = new File(archive.getPath() + ".tmp");
+            boolean dumped = quietly(java(environment, Lists.newArrayList("-Xshare:dump",
+                    "-XX:SharedClassListFile=" + list, "-XX:SharedArchiveFile=" + tmp, "-classpath", jar.getPath())));
+            if (dumped) {
+                Files.move(tmp.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.deleteIfExists(tmp.toPath());
+            return dumped;
+        } finally {
+            Files.deleteIfExists(list.toPath());
+        }
+    }
+
+    /**
+     * The java command of the environment with the run args, the environment's flags and the
+     * given args
+     *
+     * @param environment the environment
+     * @param args the args after the flags
+     * @return the command
+     */
+    private List<String> java(Environment environment, List<String> args) {
+        String s = System.getProperty("os.name").contains("Windows") ? ".exe" : "";
+        List<String> command = Lists.newArrayList(environment.javaHome + File.separator + "bin" + File.separator + "java" + s);
+        Collections.addAll(command, this.args);
+        command.addAll(environment.flags);
+        command.addAll(args);
+        return command;
+    }
+
+    /**
+     * Runs a command, only showing its output if it fails
+     *
+     * @param command the command
+     * @return true if it exited with 0
+     * @throws IOException if it can't be started
+     */
+    private static boolean quietly(List<String> command) throws IOException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) != -1; ) output.write(buf, 0, n);
+            if (process.waitFor() == 0) return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroyForcibly();
+        }
+
+        System.out.println("Failed: " + String.join(" ", command));
+        System.out.print(output.toString());
+        return false;
+    }
+
+    /**
+     * Starts a fork, which connects to the returned launch
+     *
+     * @param environment the environment of the fork
+     * @param classpath the classpath args of the fork
+     * @param extra the flags specific to the fork
+     * @param main the main class
+     * @return the launched fork
+     * @throws IOException if it can't be started
+     */
+    private Launch launch(Environment environment, List<String> classpath, List<String> extra, String main) throws IOException {
+        return launch(environment, classpath, extra, main, null);
+    }
+
+    /**
+     * Starts a fork here or on an agent, which connects to the returned launch
+     *
+     * @param environment the environment of the fork
+     * @param classpath the classpath args of the fork, the bundle is used instead on an agent
+     * @param extra the flags specific to the fork
+     * @param main the main class
+     * @param agent the agent to run the fork on, null to run it here
+     * @return the launched fork
+     * @throws IOException if it can't be started
+     */
+    private Launch launch(Environment environment, List<String> classpath, List<String> extra, String main,
+                          String agent) throws IOException {
+        // Bind before starting so the fork can never beat us to it
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            socket.setSoTimeout(ACCEPT_POLL);
+
+            List<String> args = Lists.newArrayList(DONT_INLINE_MEASURE);
+            File log = null;
+            if (safepoints) {
+                log = File.createTempFile("minimark-", ".safepoints");
+                if (feature(javaVersion(environment.javaHome)) == 8) {
+                    // PrintGCApplicationStoppedTime covers every safepoint, not only GCs
+                    Collections.addAll(args, "-Xloggc:" + log.getAbsolutePath(), "-XX:+PrintGCApplicationStoppedTime",
+                            "-XX:+PrintGCTimeStamps");
+                } else {
+                    args.add("-Xlog:safepoint=info:file=" + log.getAbsolutePath() + ":uptime");
                 }
+            }
+            if (nativeMemory) Collections.addAll(args, "-XX:NativeMemoryTracking=summary", "-Dminimark.nmt=true");
+            if (soakTime > 0) args.add("-Dminimark.soak=" + soakWindow);
+            if (fixtureDirectory != null) args.add("-Dminimark.fixtures=" + fixtureDirectory.getAbsolutePath());
+            args.addAll(extra);
+            if (agent != null) {
+                // The agent builds the command, with its own classpath and pinning
+                List<String> flags = Lists.newArrayList(this.args);
+                flags.addAll(environment.flags);
+                flags.addAll(args);
+                return new Launch(Agent.submit(agent, agentSecret, environment.jdk, flags, Strings.nullToEmpty(affinity),
+                        main, socket.getLocalPort(), bundle), socket);
+            }
+            List<String> prefix = new ArrayList<>();
+            if (affinity != null) {
+                if (new File("/usr/bin/taskset").exists() || new File("/bin/taskset").exists()) {
+                    Collections.addAll(prefix, "taskset", "-c", affinity);
+                    args.add("-Dminimark.cpus=" + affinity);
+                } else {
+                    System.out.println("No taskset, not pinning " + main);
+                }
+            }
+            args.addAll(classpath);
+            Collections.addAll(args, main, String.valueOf(socket.getLocalPort()));
+
+            List<String> command = java(environment, args);
+            command.addAll(0, prefix);
+            Process process = new ProcessBuilder(command).directory(new File(".")).inheritIO().start();
+            Launch launch = new Launch(process, socket);
+            launch.safepoints = log;
+            return launch;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
 
-                superclass.writeFile();
+    /**
+     * Takes a warm fork for the environment, starting the next batch of them if there are none left
+     *
+     * @param environment the environment
+     * @return the fork, or null if none could be started
+     */
+    private Launch warm(Environment environment) {
+        Deque<Launch> idle = pool.computeIfAbsent(environment, e -> new ArrayDeque<>());
+        if (idle.isEmpty()) {
+            System.out.println("Starting " + warmForks + " warm forks for " + environment.label);
+            List<Launch> started = new ArrayList<>();
+            try {
+                for (int i = 0; i < warmForks; i++) {
+                    started.add(launch(environment, environment.classpath, Collections.emptyList(), Fork.class.getName()));
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
 
-            // clean up
-            file.detach();
-            benchmark.detach();
-            unit.detach();
-            result.detach();
+            long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+            for (Launch launch : started) {
+                try {
+                    if (launch.accept(deadline)) {
+                        if (deadline != Long.MAX_VALUE) {
+                            launch.conn.setSoTimeout((int) Math.max(1L, deadline - System.currentTimeMillis()));
+                        }
+                        // Wait for it to settle, so it's idle by the time anything is measured
+                        launch.in.readBoolean();
+                        idle.add(launch);
+                        continue;
+                    }
+                    System.out.println("Warm fork " + launch.pid + " didn't start");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                launch.discard();
+            }
         }
 
-        /**
-         * Recursively obtains the dependencies of the class
-         *
-         * @param s the class name
-         * @throws NotFoundException ...
-         * @throws IOException ...
-         * @throws CannotCompileException ...
-         */
-        private void getDep(String s) throws NotFoundException, IOException, CannotCompileException {
-            ClassPool.getDefault().appendClassPath(".");
-            CtClass cls = ClassPool.getDefault().get(s);
-            ClassReader reader = new ClassReader(cls.toBytecode());
-            DependencyVisitor visitor = new DependencyVisitor();
-            reader.accept(visitor, 0);
-            for (String dep : visitor.getClasses()) {
-                if (string.equals(MiniMark.class.getName().replaceAll("\\.", "/"))) return;
-                if (dep.startsWith("java")) continue;
-                if (dep.startsWith("com/sun")) continue;
-                if (dep.startsWith("sun")) continue;
-                if (dep.startsWith("org/objectweb/asm")) continue;
-                if (dep.startsWith("oshi")) continue;
-                if (dep.startsWith("com/google/common")) continue;
-                if (depped.contains(dep)) continue;
+        return idle.poll();
+    }
 
-                CtClass depend = ClassPool.getDefault().get(dep);
-                depend.writeFile();
-                depend.detach();
-                depped.add(dep);
+    /**
+     * Stops the warm forks that weren't needed
+     */
+    private void drain() {
+        for (Deque<Launch> idle : pool.values()) {
+            for (Launch launch : idle) launch.discard();
+        }
+        pool.clear();
+    }
 
-                getDep(dep);
+    /**
+     * Runs the forks of a pair alternately, in a random order each round
+     *
+     * @param a one side
+     * @param b the other side
+     * @param environment the environment to run them in
+     */
+    private void compare(Mark a, Mark b, Environment environment) {
+        List<Result> as = new ArrayList<>();
+        List<Result> bs = new ArrayList<>();
+        Random random = new Random();
+        for (int round = 0; round < rounds; round++) {
+            System.out.println("Round " + (round + 1) + " of " + rounds + " comparing " + a.meName);
+            if (random.nextBoolean()) {
+                as.add(a.test(environment));
+                bs.add(b.test(environment));
+            } else {
+                bs.add(b.test(environment));
+                as.add(a.test(environment));
             }
         }
 
-        /**
-         * Profiles the method
-         *
-         * <p>Synchronization on the class is necessary in order to prevent the output from becoming
-         * screwed up, also prevents a ton of process errors related to IO.</p>
+        for (Mark mark : Arrays.asList(a, b)) {
+            Result result = combine(mark, mark == a ? as : bs);
+            result.environment = environment.label;
+            mark.results.put(environment, result);
+        }
+    }
+
+    /**
+     * Averages the rounds of one side of a pair or the forks of a single shot, keeping the result of
+     * each as a sample
+     *
+     * @param mark the benchmark
+     * @param rounds the results of its forks
+     * @return the first failure, or the average
+     */
+    private Result combine(Mark mark, List<Result> rounds) {
+        double sum = 0;
+        for (Result round : rounds) {
+            if (round.failed()) return round;
+            sum += round.avg;
+        }
+
+        Result combined = Result.compile(this, mark.name, sum / rounds.size());
+        for (Result round : rounds) {
+            combined.samples.add(round.avg);
+            combined.iterations.addAll(round.iterations);
+            if (round.nativeMemory != null) {
+                if (combined.nativeMemory == null) combined.nativeMemory = new LinkedHashMap<>();
+                round.nativeMemory.forEach((category, bytes) -> combined.nativeMemory.merge(category, bytes, Long::sum));
+            }
+            if (round.safepoints >= 0) {
+                combined.safepoints = Math.max(0L, combined.safepoints) + round.safepoints;
+                combined.safepointTime += round.safepointTime;
+                combined.timeToSafepoint = Math.max(combined.timeToSafepoint, round.timeToSafepoint);
+                combined.window += round.window;
+            }
+            combined.shots.addAll(round.shots);
+            combined.loads.addAll(round.loads);
+            combined.ops += round.ops;
+            combined.batches += round.batches;
+            combined.resolution = Math.max(combined.resolution, round.resolution);
+            combined.noise = Math.max(combined.noise, round.noise);
+            combined.load = Math.max(combined.load, round.load);
+            for (String warning : round.warnings) {
+                if (!combined.warnings.contains(warning)) combined.warnings.add(warning);
+            }
+            // Every round records to the same file
+            if (round.profile != null) combined.profile = round.profile;
+        }
+        return combined;
+    }
+
+    /**
+     * Reads the results of the last run, if running incrementally
+     */
+    private void loadResults() {
+        stored.clear();
+        if (resultStore == null || !resultStore.exists()) return;
+        try (InputStream in = new FileInputStream(resultStore)) {
+            stored.load(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds the successful results of this run to the store, if running incrementally
+     *
+     * @param marks the benchmarks that ran
+     */
+    private void saveResults(List<Mark> marks) {
+        if (resultStore == null) return;
+        for (Mark mark : marks) {
+            for (Map.Entry<Environment, Result> entry : mark.results.entrySet()) {
+                Result result = entry.getValue();
+                if (result.failed() || result.hash == null || !mark.storable()) continue;
+                stored.setProperty(mark.storeKey(entry.getKey()), result.hash + " " + result.avg + " " +
+                        result.ops + " " + result.batches + " " + result.resolution);
+            }
+        }
+
+        File dir = resultStore.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.out.println("Cannot create " + dir);
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(resultStore)) {
+            stored.store(out, "MiniMark results: hash avg ops batches resolution");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Whether the class is provided by the JDK or a library of the harness, rather than being part of
+     * the benchmark
+     *
+     * @param dep the internal name of the class
+     * @return true if it isn't copied for, or hashed with, the benchmark
+     */
+    private static boolean isProvided(String dep) {
+        // javassist is not part of the JDK, units that generate code need it in the fork
+        return dep.startsWith("java") && !dep.startsWith("javassist/") || dep.startsWith("jdk") ||
+                dep.startsWith("com/sun") || dep.startsWith("sun") || dep.startsWith("org/objectweb/asm") || dep.startsWith("oshi") ||
+                dep.startsWith("com/google/common");
+    }
+
+    /**
+     * Whether the benchmark passes the filter, both sides of a comparison run if either passes
+     *
+     * @param group the group of the benchmark
+     * @param mark the benchmark
+     * @return true to run it
+     */
+    private boolean isSelected(String group, Mark mark) {
+        if (filter == null || filter.matcher(group + " - " + mark.name).find()) return true;
+        // One side can't run without the other
+        return mark.pair != null && filter.matcher(group + " - " + mark.pair.name).find();
+    }
+
+    /**
+     * Generates the invokers of the benchmarks that are about to run, in parallel
+     *
+     * @param marks the benchmarks
+     * @param environments the environments they run in
+     */
+    private void prepare(List<Mark> marks, List<Environment> environments) {
+        ExecutorService service = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Mark mark : marks) {
+                futures.add(service.submit(() -> mark.prepare(environments)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    /**
+     * Generates the fixtures of the benchmarks that are about to run, so the forks only map them
+     *
+     * @param marks the benchmarks
+     */
+    private void fixtures(List<Mark> marks) {
+        File directory = fixtureDirectory == null ? Fixtures.directory() : fixtureDirectory;
+        Set<Class<?>> units = new HashSet<>();
+        for (Mark mark : marks) {
+            if (!units.add(mark.unit.getClass())) continue;
+            for (Field field : mark.unit.getClass().getDeclaredFields()) {
+                Fixture fixture = field.getAnnotation(Fixture.class);
+                if (fixture == null) continue;
+                long start = System.nanoTime();
+                try {
+                    File file = Fixtures.generate(directory, field.getType(), fixture.length(), fixture.seed(), fixture.bound());
+                    if (file != null) {
+                        System.out.println(String.format("Generated fixture %s in %d ms", file,
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+                    }
+                } catch (IOException e) {
+                    // Each fork tries again on its own
+                    System.out.println("Cannot generate the fixture of " + field + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the percentile
+     *
+     * @param outOfHundred 90, or whatever percentage you want
+     * @param doubles the data to find the percentile. Must be a TreeMultiset.
+     * @return the percentile
+     */
+    private static double findPercentile(int outOfHundred, Collection<Double> doubles) {
+        BigDecimal value = BigDecimal.valueOf(outOfHundred);
+        BigDecimal sub = value.multiply(BigDecimal.valueOf(doubles.size()));
+        int idx = sub.divide(HUNDRED, BigDecimal.ROUND_HALF_EVEN).intValue();
+
+        // Essentially - we can't use a List - no ordering
+        // Can't sort - would take too long, and runs out of heap
+        // therefore, we have to do it the long way
+        // and use a sorted collection
+        // Remember to use a List or other collection which allows dupes!!!
+        Iterator<Double> iterator = doubles.iterator();
+        for (int i = 0; i < idx; i++) {
+            Double l = iterator.next();
+            if (i == idx - 1) {
+                return l;
+            }
+        }
+
+        return 0L;
+    }
+
+    /**
+     * Sets the iterations to warm up the JVM
+     *
+     * <p>This number is not recommended to be changed. 10.000 and up is good.</p>
+     *
+     * @param warmupIterations the iterations
+     * @return the current instance
+     */
+    public MiniMark setWarmupIterations(int warmupIterations) {
+        this.warmupIterations = warmupIterations;
+        return this;
+    }
+
+    /**
+     * Sets the iteration to profile the methods
+     *
+     * <p>This number is preferably in the millions or hundred thousands at least</p>
+     *
+     * @param profileIterations the iterations
+     * @return the current instance
+     * @deprecated confusing usage
+     */
+    @Deprecated public MiniMark setProfileIterations(int profileIterations) {
+        this.profileIterations = profileIterations;
+        return this;
+    }
+
+    /**
+     * Only runs the benchmarks with a name matching the given regex
+     *
+     * <p>Matched against the name as printed in the results, e.g. {@code "group - pkg_Class_method"}.
+     * Invokers are only generated for the benchmarks that are run. A comparison is run whole if
+     * either side of it matches.</p>
+     *
+     * @param regex the regex to find in the name, null to run everything
+     * @return the current instance
+     */
+    public MiniMark filter(String regex) {
+        this.filter = regex == null ? null : Pattern.compile(regex);
+        return this;
+    }
+
+    /**
+     * Sets where generated invokers are cached between runs
+     *
+     * <p>Invokers are keyed by the bytecode of the unit and the settings they were generated
+     * with, so a stale one is never used.</p>
+     *
+     * @param cacheDirectory the directory, null to generate every invoker on every run
+     * @return the current instance
+     */
+    public MiniMark setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+        return this;
+    }
+
+    /**
+     * Sets where the {@link Fixture}s of the units are generated to and mapped from
+     *
+     * <p>Fixtures are named by their type, length, seed and bound, so they are generated once and
+     * reused by every later run. A fork that can't reach the directory, e.g. on an agent, generates
+     * its own in its temp directory.</p>
+     *
+     * @param fixtureDirectory the directory, null to use the temp directory
+     * @return the current instance
+     */
+    public MiniMark setFixtureDirectory(File fixtureDirectory) {
+        this.fixtureDirectory = fixtureDirectory;
+        return this;
+    }
+
+    /**
+     * Records the measurement window of every fork with Java Flight Recorder
+     *
+     * <p>The recordings are kept as {@code <benchmark>.jfr} in the directory, and a summary of the
+     * hottest methods, allocations, lock contention and GC pauses during the measurement is
+     * printed with the results. Each batch of measurements is recorded as a MiniMark Batch event.
+     * The forks need a JVM that ships JFR, 8u262+ or 11+.</p>
+     *
+     * @param flightDirectory the directory to keep the recordings in, null to not record
+     * @return the current instance
+     */
+    public MiniMark setFlightRecording(File flightDirectory) {
+        this.flightDirectory = flightDirectory;
+        return this;
+    }
+
+    /**
+     * Logs the safepoints of every fork, with -Xlog:safepoint or the Java 8 flags, and reports the
+     * safepoints that ended during the measurement window of each benchmark
+     *
+     * <p>Each result gets the count, the total pause time and the longest time to safepoint, and a
+     * warning if the pauses took more than 5% of the measurement.</p>
+     *
+     * @param safepoints whether to log safepoints
+     * @return the current instance
+     */
+    public MiniMark setSafepointLogging(boolean safepoints) {
+        this.safepoints = safepoints;
+        return this;
+    }
+
+    /**
+     * Starts every fork with -XX:NativeMemoryTracking=summary, and reports how much the committed
+     * native memory of each NMT category grew during the measurement window of each benchmark
+     *
+     * <p>The fork takes a baseline through the VM.native_memory diagnostic command when the
+     * measurement starts and a summary diff when it ends. Direct buffers and other malloc'd memory
+     * show up as Internal on Java 8 and as Other after.</p>
+     *
+     * @param nativeMemory whether to track native memory
+     * @return the current instance
+     */
+    public MiniMark setNativeMemoryTracking(boolean nativeMemory) {
+        this.nativeMemory = nativeMemory;
+        return this;
+    }
+
+    /**
+     * Measures each benchmark for the given time instead of the measurement time, and records the
+     * throughput, heap after GC, code cache and compilations of the fork in windows of the given
+     * length, to find what only shows up after a long run
+     *
+     * <p>A trend is fitted to each series of windows, and a warning is added to the result when
+     * ns/op, the heap after GC or the code cache grow significantly over the soak, when the code
+     * cache is close to full, or when methods are still being deoptimized after the first quarter
+     * of it. The timeout has to be longer than the soak. Thread groups are measured as usual.</p>
+     *
+     * @param time the time to soak each benchmark, 0 to not soak
+     * @param window the length of each window, at least 3 windows are needed for a trend
+     * @param unit the unit of the times
+     * @return the current instance
+     */
+    public MiniMark setSoak(long time, long window, TimeUnit unit) {
+        if (time > 0 && window <= 0) throw new IllegalArgumentException("Soak window must be positive: " + window);
+        this.soakTime = unit.toNanos(time);
+        this.soakWindow = unit.toNanos(window);
+        return this;
+    }
+
+    /**
+     * Also drives each measured method and mix at a series of arrival rates after measuring it,
+     * each for the measurement time or a second, and reports the latency percentiles at each rate
+     * and the rate latency turns sharply upward at
+     *
+     * <p>The fork first makes calls back to back through the open loop, twice for a tenth of that
+     * time, so that it's compiled before any rate. Without rates, the rates are 10% to 110% of the
+     * throughput of the second time.</p>
+     *
+     * <p>Unlike the closed loop, where a call starts once the last one is done, each call has a
+     * scheduled start and its latency is timed from there. A stall then delays every call scheduled
+     * during it, as it would for the requests of a service, rather than hiding in a single slow
+     * call. Single shots and thread groups don't run an open loop.</p>
+     *
+     * @param arrivals how the calls are scheduled, null to turn it off
+     * @param rates the rates in calls per second, none for fractions of the capacity of the open loop
+     * @return the current instance
+     */
+    public MiniMark setOpenLoop(Arrivals arrivals, double... rates) {
+        for (double rate : rates) {
+            if (rate <= 0) throw new IllegalArgumentException("Rate must be positive: " + rate);
+        }
+        this.arrivals = arrivals;
+        this.rates = rates.clone();
+        Arrays.sort(this.rates);
+        return this;
+    }
+
+    /**
+     * Starts forks with a class data sharing archive of the harness and the units, built once per
+     * JDK and set of classes and kept in the given directory
+     *
+     * <p>Needs Java 11 or later in the fork, forks on older JVMs start without an archive. The
+     * classes are put in a jar next to the archive, as only classes from jars can be archived.</p>
+     *
+     * @param directory the directory to keep the archives in, null to start forks without one
+     * @return the current instance
+     */
+    public MiniMark setClassDataSharing(File directory) {
+        this.sharingDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Starts the given amount of forks at a time for each environment, ahead of the benchmarks they
+     * will run
+     *
+     * <p>The forks start and settle in parallel, while nothing is being measured, and then wait
+     * idle for a benchmark to be sent to them. The benchmark still warms up as long as in a fresh
+     * fork. Each still runs only one benchmark. Benchmarks with
+     * {@link CompilerControl} need their own JIT flags, so they always start their own fork.</p>
+     *
+     * @param count the forks to start at a time, 0 to start each fork when it's needed
+     * @return the current instance
+     */
+    public MiniMark setWarmForks(int count) {
+        this.warmForks = count;
+        return this;
+    }
+
+    /**
+     * Compares two implementations of the same benchmarks, e.g. before and after an optimization
+     *
+     * <p>Each measured method of a is paired with the method of b with the same name, and both are
+     * added to a group of their own. The forks of a pair alternate in a random order, so drift in
+     * the machine's state hits both sides alike, and the difference of each round is tested for
+     * significance. Each side has its own classes, so the units may be the same class loaded from
+     * two classpaths.</p>
+     *
+     * @param group the name of the group
+     * @param a the baseline
+     * @param b the contender
+     * @return the current instance
+     */
+    public MiniMark compare(String group, Unit a, Unit b) {
+        group(group);
+        File sides = new File(new File(".minimark", "compare"), group.replaceAll("[^A-Za-z0-9_.-]", "_"));
+        for (Method method : a.getClass().getDeclaredMethods()) {
+            if (!method.isAnnotationPresent(Measure.class)) continue;
+            Method other;
+            try {
+                other = b.getClass().getDeclaredMethod(method.getName());
+            } catch (NoSuchMethodException e) {
+                continue;
+            }
+            if (!other.isAnnotationPresent(Measure.class)) continue;
+
+            Mark first = new Mark(a.getClass().getName().replaceAll("\\.", "_") + "_" + method.getName() + "_A",
+                    a, method.getName());
+            Mark second = new Mark(b.getClass().getName().replaceAll("\\.", "_") + "_" + method.getName() + "_B",
+                    b, method.getName());
+            first.classes = new File(sides, "a").getAbsoluteFile();
+            second.classes = new File(sides, "b").getAbsoluteFile();
+            first.pair = second;
+            second.pair = first;
+            benchmarks.get(group).put(first.name, first);
+            benchmarks.get(group).put(second.name, second);
+        }
+
+        return this;
+    }
+
+    /**
+     * Compares the same unit loaded from two classpaths, e.g. the jars of the last release and of
+     * the current build
+     *
+     * <p>The unit must have a no-arg constructor, and must not be on this JVM's classpath, as the
+     * class loaders of each side ask it first.</p>
+     *
+     * @param group the name of the group
+     * @param unit the name of the unit's class
+     * @param a the classpath of the baseline
+     * @param b the classpath of the contender
+     * @return the current instance
+     * @see #compare(String, Unit, Unit)
+     */
+    public MiniMark compare(String group, String unit, URL[] a, URL[] b) {
+        return compare(group, load(unit, a), load(unit, b));
+    }
+
+    private static Unit load(String unit, URL[] classpath) {
+        try {
+            ClassLoader loader = new URLClassLoader(classpath, MiniMark.class.getClassLoader());
+            return (Unit) loader.loadClass(unit).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Cannot load " + unit + " from " + Arrays.toString(classpath), e);
+        }
+    }
+
+    /**
+     * Measures the first calls of each method instead of its steady state, in the given amount of
+     * fresh forks which don't settle or warm up
+     *
+     * <p>Each fork times creating the unit, which initializes its class, and then each of the
+     * calls, counting the classes loaded by each with the ClassLoadingMXBean. The harness is
+     * initialized before, and setup runs once after creating the unit. Mixes and thread groups
+     * still measure steady state.</p>
+     *
+     * @param forks the forks to run each method in, 0 to measure steady state
+     * @param calls the calls to time in each fork
+     * @return the current instance
+     */
+    public MiniMark setSingleShot(int forks, int calls) {
+        this.shotForks = forks;
+        this.shotCalls = Math.max(1, calls);
+        return this;
+    }
+
+    /**
+     * Adds a listener which is told about each fork and result while the benchmarks run, rather
+     * than waiting for the table at the end, it has to be thread-safe when running on agents
+     *
+     * @param listener the listener
+     * @return the current instance
+     */
+    public MiniMark addListener(Listener listener) {
+        this.listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Skips the benchmarks that haven't started yet, the one running is finished first. They get a
+     * failed result. Meant to be called by a listener that has seen enough.
+     */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    /**
+     * Sets how many forks of each side of a comparison to run
+     *
+     * @param rounds the forks of each side, at least 2 to test the difference
+     * @return the current instance
+     */
+    public MiniMark setComparisonRounds(int rounds) {
+        this.rounds = rounds;
+        return this;
+    }
+
+    /**
+     * Only reruns benchmarks whose code changed since the last run
+     *
+     * <p>Every result is stored with a hash of the bytecode of all the classes its unit depends on,
+     * the harness, the settings and the JVM it ran on. A benchmark whose hash hasn't changed is not
+     * run again, its stored result is reused and marked as such.</p>
+     *
+     * @param resultStore the file to keep the results in, null to always run everything
+     * @return the current instance
+     */
+    public MiniMark setIncremental(File resultStore) {
+        this.resultStore = resultStore;
+        return this;
+    }
+
+    /**
+     * Pins the forks to the given CPUs on Linux, using taskset
+     *
+     * <p>The thread running the benchmark gets the first CPU to itself, the rest of the JVM (JIT
+     * compilers, GC, etc.) runs on the others. Ideally the CPUs are isolated from the scheduler and
+     * the first is not a hyperthread sibling of the others.</p>
+     *
+     * @param cpus the CPUs in taskset list format, e.g. "2-5" or "2,4,6", null to not pin
+     * @return the current instance
+     */
+    public MiniMark setAffinity(String cpus) {
+        this.affinity = cpus;
+        return this;
+    }
+
+    /**
+     * Spreads the benchmarks over agents on other hosts, each running one fork at a time
+     *
+     * <p>Each benchmark runs all of its environments on the same agent. Comparisons, single shots
+     * and runs with flight recordings or safepoint logs still fork here, and so does every
+     * benchmark of an agent that can't be reached. Listeners are called concurrently from a thread
+     * per agent, so they have to be thread-safe.
+     * See {@link Agent} for starting one.</p>
+     *
+     * @param agents the host and port of each agent, e.g. "perf1:7171"
+     * @return the current instance
+     */
+    public MiniMark setAgents(String... agents) {
+        this.agents.clear();
+        Collections.addAll(this.agents, agents);
+        return this;
+    }
+
+    /**
+     * Sets the secret shared with the agents, which is needed by an agent listening on anything
+     * but loopback. It's read from the {@value Agent#SECRET} environment variable by default.
+     *
+     * @param secret the secret, null or empty if the agents have none
+     * @return the current instance
+     */
+    public MiniMark setAgentSecret(String secret) {
+        this.agentSecret = Strings.nullToEmpty(secret);
+        return this;
+    }
+
+    /**
+     * Adds a JDK to run every benchmark on, side by side with the other JDKs
+     *
+     * <p>Without any JDKs, the forks run on the same JVM as this one.</p>
+     *
+     * @param javaHome the home directory of the JDK or JRE
+     * @return the current instance
+     */
+    public MiniMark jvm(String javaHome) {
+        String version = javaVersion(javaHome);
+        String label = version == null ? new File(javaHome).getName() : "Java " + version;
+        // Two builds of the same version
+        while (jvms.containsKey(label)) label += "'";
+
+        jvms.put(label, javaHome);
+        return this;
+    }
+
+    /**
+     * Adds a named set of JVM flags to run every benchmark with, side by side with the other sets
+     * and on every JDK added with {@link #jvm(String)}
+     *
+     * <p>The flags are added after the args passed to {@link #run(String...)}.</p>
+     *
+     * @param name the name of the set, e.g. "G1" or "ZGC"
+     * @param flags the flags
+     * @return the current instance
+     */
+    public MiniMark flags(String name, String... flags) {
+        flagSets.put(name, Arrays.asList(flags));
+        return this;
+    }
+
+    /**
+     * Profiles each method for the given amount of time rather than a fixed amount of iterations
+     *
+     * <p>Gives the suite a predictable runtime no matter how expensive the methods are. Settling
+     * and warmup are not counted.</p>
+     *
+     * @param time the time to profile each method, 0 to go back to the profile iterations
+     * @param unit the unit of the time
+     * @return the current instance
+     */
+    public MiniMark setMeasurementTime(long time, TimeUnit unit) {
+        this.measurementTime = unit.toNanos(time);
+        return this;
+    }
+
+    /**
+     * Sets the hard limit on the runtime of each fork, including settling and warmup
+     *
+     * <p>A fork that runs over is thread dumped and killed, and a failed result is recorded for
+     * its method.</p>
+     *
+     * @param time the time a fork may run, 0 to wait forever
+     * @param unit the unit of the time
+     * @return the current instance
+     */
+    public MiniMark setTimeout(long time, TimeUnit unit) {
+        this.timeout = unit.toMillis(time);
+        return this;
+    }
+
+    /**
+     * Stalks your computer and prints the information about it using OSHI.
+     *
+     * <p>Just kidding, you don't need to call this, but it's helpful if you juset want to know.</p>
+     */
+    public void printSystemInfo() {
+        // Obtains
+        // OS, java version, flags, CPU, disks, RAM, power
+        System.out.println("System info:");
+
+        String os = System.getProperty("os.name");
+        String osVer = System.getProperty("os.version");
+        String osArch = System.getProperty("os.arch");
+        System.out.printf("Running %s version %s arch %s\n", os, osVer, osArch);
+
+        String javaVer = System.getProperty("java.version");
+        String vmVendor = System.getProperty("java.vendor");
+        System.out.printf("Java version %s JVM %s\n", javaVer, vmVendor);
+
+        System.out.print("Java flags: ");
+        RuntimeMXBean runtimeMxBean = ManagementFactory.getRuntimeMXBean();
+        List<String> arguments = runtimeMxBean.getInputArguments();
+        for (String string : arguments) {
+            System.out.print(string + " ");
+        }
+        for (String arg : args) {
+            System.out.print(arg + " ");
+        }
+        System.out.println();
+        if (!jvms.isEmpty() || !flagSets.isEmpty()) {
+            System.out.println("Matrix:");
+            for (Environment environment : environments()) {
+                System.out.printf("  %s: %s %s%n", environment.label, environment.javaHome,
+                        String.join(" ", environment.flags));
+            }
+        }
+
+        SystemInfo info = new SystemInfo();
+        HardwareAbstractionLayer layer = info.getHardware();
+
+        GlobalMemory memory = layer.getMemory();
+        System.out.printf("Memory total %d bytes, usable %d bytes%n", memory.getTotal(), memory.getAvailable());
+
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("VM memory free %d bytes, max %d bytes, total %d bytes%n", runtime.freeMemory(),
+                runtime.maxMemory(), runtime.totalMemory());
+
+        CentralProcessor proc = layer.getProcessor();
+        System.out.println("CPU:");
+        System.out.printf("  %s%n", proc.getName());
+        Map<Integer, Long> caches = cacheSizes();
+        if (!caches.isEmpty()) {
+            StringBuilder line = new StringBuilder("  Caches:");
+            for (Map.Entry<Integer, Long> cache : caches.entrySet()) {
+                line.append(" L").append(cache.getKey()).append(' ').append(bytes(cache.getValue()));
+            }
+            System.out.println(line);
+        }
+
+        HWDiskStore[] stores = layer.getDiskStores();
+        System.out.print("Disks (" + stores.length + "):\n");
+        for (HWDiskStore store : stores) {
+            System.out.printf("  %s %s size %d bytes%n",
+                    store.getModel(), store.getName(), store.getSize());
+        }
+
+        PowerSource[] sources = layer.getPowerSources();
+        System.out.println("PSUs (" + sources.length + "):");
+        for (PowerSource source : sources) {
+            System.out.printf("  %s: remaining %f, time left %f%n", source.getName(), source.getRemainingCapacity(),
+                    source.getTimeRemaining());
+        }
+    }
+
+    /** The dependencies already loaded by the benchmark */
+    private final Set<String> depped = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    /** The dependencies already written to each directory other than the working directory */
+    private final Map<File, Set<String>> written = new ConcurrentHashMap<>();
+    /** The hash and dependencies of every class hashed so far, shared by all Marks */
+    private final Map<String, Walked> walked = new ConcurrentHashMap<>();
+
+    /**
+     * A class hashed for an incremental run
+     *
+     * @author caojohnny
+     */
+    private static class Walked {
+        private final String hash;
+        private final Set<String> deps;
+
+        Walked(String hash, Set<String> deps) {
+            this.hash = hash;
+            this.deps = deps;
+        }
+    }
+
+    /**
+     * Represents a test of a given method
+     *
+     * @author caojohnny
+     */
+    private class Mark {
+        private final String name;
+        private final Unit unit;
+        private final String meName;
+        private String invoker;
+        /** The results in each environment, in the order they ran */
+        private final Map<Environment, Result> results = new LinkedHashMap<>();
+        /** The hash of everything that went into the result in each environment */
+        private final Map<Environment, String> hashes = new HashMap<>();
+        /** Whether the measured method does nothing, making it the group's baseline */
+        private boolean empty;
+        /** Suspicious bytecode found in the measured method */
+        private final List<String> suspicions = new ArrayList<>();
+        /** The weight of each method if this is a mix, meName is the name of the mix */
+        private Map<String, Integer> mix;
+        /** The threads of each method if this is a thread group, meName is the name of the group */
+        private Map<String, Integer> roles;
+        /** The field set to the size of the working set, null if not swept */
+        private Field sweep;
+        /** The size of the working set in bytes */
+        private long size;
+        /** The name of the method without the size, shared by every size of the sweep */
+        private String swept;
+        /** The other side if this is one side of a comparison */
+        private Mark pair;
+        /** Where the classes of the fork are written, null for the working directory */
+        private File classes;
+
+        public Mark(String name, Unit unit, String meName) {
+            this.name = name;
+            this.unit = unit;
+            this.meName = meName;
+        }
+
+        /**
+         * Writes the invoker and its dependencies to the working directory for the fork to load,
+         * generating the invoker only if it isn't cached
+         *
+         * <p>Each Mark uses its own ClassPool so that they can be prepared in parallel. When running
+         * incrementally, nothing is written if every environment can reuse its stored result.</p>
+         *
+         * @param environments the environments the benchmark runs in
+         */
+        private void prepare(List<Environment> environments) {
+            try {
+                ClassPool classPool = new ClassPool(true);
+                classPool.appendClassPath(new LoaderClassPath(unit.getClass().getClassLoader()));
+                String invoker = unit.getClass().getPackage().getName() + ".Benchmark_" + name + "_implInvoker";
+
+                // The methods of a mix or group are inspected with their own benchmarks
+                if (mix == null && roles == null) inspect(classPool.get(unit.getClass().getName()).toBytecode());
+
+                String key = cacheKey(classPool);
+                // Comparisons are always run, both sides in the same conditions
+                if (resultStore != null && pair == null) {
+                    String closure = closureHash(classPool, key);
+                    for (Environment environment : environments) {
+                        String hash = environmentHash(closure, environment);
+                        hashes.put(environment, hash);
+                        Result reused = reuse(environment, hash);
+                        if (reused != null) results.put(environment, reused);
+                    }
+                    if (results.size() == environments.size()) return;
+                }
+
+                byte[] bytecode = null;
+                File cached = null;
+                if (cacheDirectory != null) {
+                    cached = new File(cacheDirectory, key + ".class");
+                    if (cached.exists()) bytecode = Files.readAllBytes(cached.toPath());
+                }
+                if (bytecode == null) {
+                    bytecode = instrument(classPool, invoker);
+                    if (cached != null) store(cached, bytecode);
+                }
+
+                File file = new File(classes, invoker.replace('.', File.separatorChar) + ".class");
+                store(file, bytecode);
+                getDep(classPool, bytecode);
+
+                this.invoker = invoker;
+            } catch (IOException | NotFoundException | CannotCompileException | NoSuchMethodException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Hashes the bytecode of every class the unit depends on, along with the invoker's cache key
+         *
+         * @param classPool the pool to read the bytecode from
+         * @param key the cache key of the invoker
+         * @return the hex hash
+         * @throws NotFoundException ...
+         * @throws IOException ...
+         * @throws CannotCompileException ...
+         */
+        private String closureHash(ClassPool classPool, String key) throws NotFoundException, IOException, CannotCompileException {
+            // Sorted, the order of the walk doesn't matter
+            SortedMap<String, String> closure = new TreeMap<>();
+            Deque<String> queue = new ArrayDeque<>();
+            queue.add(unit.getClass().getName().replace('.', '/'));
+            while (!queue.isEmpty()) {
+                String name = queue.poll();
+                if (closure.containsKey(name)) continue;
+
+                Walked walk = walked.get(name);
+                if (walk == null) {
+                    walk = walk(classPool, name);
+                    walked.put(name, walk);
+                }
+                closure.put(name, walk.hash);
+                queue.addAll(walk.deps);
+            }
+
+            Hasher hasher = Hashing.sha256().newHasher();
+            hasher.putString(key, StandardCharsets.UTF_8);
+            for (Map.Entry<String, String> entry : closure.entrySet()) {
+                hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+                hasher.putString(entry.getValue(), StandardCharsets.UTF_8);
+            }
+            return hasher.hash().toString();
+        }
+
+        private Walked walk(ClassPool classPool, String name) throws IOException, CannotCompileException {
+            byte[] bytecode;
+            try {
+                bytecode = classPool.get(name).toBytecode();
+            } catch (NotFoundException e) {
+                // Optional dependency of a library, can't change without the library changing
+                return new Walked("missing", Collections.emptySet());
+            }
+
+            ClassReader reader = new ClassReader(bytecode);
+            DependencyVisitor visitor = new DependencyVisitor();
+            reader.accept(visitor, 0);
+            Set<String> deps = new HashSet<>();
+            for (String dep : visitor.getClasses()) {
+                if (!isProvided(dep) && !dep.equals(name)) deps.add(dep);
+            }
+            return new Walked(Hashing.sha256().hashBytes(bytecode).toString(), deps);
+        }
+
+        /**
+         * Adds what the fork gets from the environment to the hash of the code
+         *
+         * @param closure the hash of the code
+         * @param environment the environment
+         * @return the hex hash of the result in the environment
+         */
+        private String environmentHash(String closure, Environment environment) {
+            Hasher hasher = Hashing.sha256().newHasher();
+            hasher.putString(closure, StandardCharsets.UTF_8);
+            hasher.putString(environment.javaHome, StandardCharsets.UTF_8);
+            for (String flag : environment.flags) hasher.putString(flag, StandardCharsets.UTF_8);
+            for (String arg : args) hasher.putString(arg, StandardCharsets.UTF_8);
+            for (String command : compileCommands()) hasher.putString(command, StandardCharsets.UTF_8);
+            hasher.putString(String.valueOf(affinity), StandardCharsets.UTF_8);
+            // Logging and tracking slow the fork down too
+            hasher.putBoolean(safepoints);
+            hasher.putBoolean(nativeMemory);
+            hasher.putString(String.valueOf(flightDirectory), StandardCharsets.UTF_8);
+            hasher.putLong(soakWindow);
+            hasher.putLong(timeout);
+            return hasher.hash().toString();
+        }
+
+        /**
+         * Finds the stored result for the environment, if it was measured with the same hash
+         *
+         * <p>Only the average, ops, batches and resolution are stored, so nothing is reused when
+         * safepoints, native memory, a flight recording, a soak or an open loop are asked for.</p>
+         *
+         * @param environment the environment
+         * @param hash the current hash
+         * @return the stored result, or null if it has to run again
+         */
+        private Result reuse(Environment environment, String hash) {
+            if (!storable()) return null;
+            if (safepoints || nativeMemory || flightDirectory != null || soakTime > 0 || arrivals != null) return null;
+            String value = stored.getProperty(storeKey(environment));
+            if (value == null) return null;
+
+            String[] parts = value.split(" ");
+            if (parts.length < 5 || !parts[0].equals(hash)) return null;
+            try {
+                Result result = Result.compile(MiniMark.this, name, Double.parseDouble(parts[1]));
+                result.ops = Long.parseLong(parts[2]);
+                result.batches = Long.parseLong(parts[3]);
+                result.resolution = Long.parseLong(parts[4]);
+                result.hash = hash;
+                result.reused = true;
+                result.environment = environment.label;
+                return result;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private String storeKey(Environment environment) {
+            for (Map.Entry<String, Map<String, Mark>> group : benchmarks.entrySet()) {
+                if (group.getValue().get(name) == this) {
+                    return group.getKey() + " - " + name + " [" + environment.label + "]";
+                }
+            }
+            return name + " [" + environment.label + "]";
+        }
+
+        /**
+         * Scans the measured method for code the JIT is likely to eliminate or fold
+         *
+         * @param bytecode the bytecode of the unit
+         */
+        private void inspect(byte[] bytecode) {
+            ClassReader reader = new ClassReader(bytecode);
+            DceVisitor visitor = new DceVisitor(meName);
+            reader.accept(visitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            empty = visitor.isEmpty();
+            suspicions.clear();
+            suspicions.addAll(visitor.getSuspicions());
+        }
+
+        /**
+         * Hashes everything that goes into generating the invoker
+         *
+         * @param classPool the pool to read the bytecode from
+         * @return the hex key of the cached invoker
+         * @throws NotFoundException ...
+         * @throws IOException ...
+         * @throws CannotCompileException ...
+         */
+        private String cacheKey(ClassPool classPool) throws NotFoundException, IOException, CannotCompileException {
+            Hasher hasher = Hashing.sha256().newHasher();
+            hasher.putBytes(classPool.get(unit.getClass().getName()).toBytecode());
+            // The generator, so that changing the harness invalidates the cache
+            hasher.putBytes(classPool.get(Mark.class.getName()).toBytecode());
+            hasher.putString(name, StandardCharsets.UTF_8);
+            hasher.putString(meName, StandardCharsets.UTF_8);
+            hasher.putLong(size);
+            hasher.putInt(singleShot() ? shotCalls : 0);
+            hasher.putInt(singleShot() ? shotForks : 0);
+            for (Map<String, Integer> methods : Arrays.asList(mix, roles)) {
+                if (methods == null) continue;
+                for (Map.Entry<String, Integer> entry : methods.entrySet()) {
+                    hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+                    hasher.putInt(entry.getValue());
+                }
+            }
+            hasher.putInt(warmupIterations);
+            hasher.putInt(profileIterations);
+            hasher.putLong(measurementTime);
+            hasher.putLong(soakTime);
+            if (arrivals != null) {
+                hasher.putInt(arrivals.ordinal());
+                for (double rate : rates) hasher.putDouble(rate);
+            }
+            return hasher.hash().toString();
+        }
+
+        /**
+         * Not really instrumentation... Rather creating a new synthetic class to execute in another JVM
+         *
+         * @param classPool the pool to generate the class in
+         * @param invoker the name of the synthetic class
+         * @return the bytecode of the synthetic class
+         * @throws NotFoundException
+         * @throws CannotCompileException
+         * @throws NoSuchMethodException
+         * @throws IOException
+         */
+        private byte[] instrument(ClassPool classPool, String invoker) throws NotFoundException, CannotCompileException, NoSuchMethodException, IOException {
+            CtClass superclass = classPool.get(unit.getClass().getName());
+            CtClass file = classPool.makeClass(invoker, superclass);
+
+            // The fixtures first, the setup of a sweep may need them
+            StringBuilder fixtures = new StringBuilder();
+            StringBuilder prepare = new StringBuilder();
+            for (Field field : unit.getClass().getDeclaredFields()) {
+                Fixture fixture = field.getAnnotation(Fixture.class);
+                if (fixture == null) continue;
+                String args = "(\"" + field.getType().getName() + "\", " + fixture.length() + ", " + fixture.seed() +
+                        "L, " + fixture.bound() + "L);";
+                fixtures.append("this.").append(field.getName()).append(" = (").append(field.getType().getCanonicalName())
+                        .append(") ").append(Fixtures.class.getName()).append(".load").append(args);
+                prepare.append(Fixtures.class.getName()).append(".prepare").append(args);
+            }
+            // Called by single shots before the timed construction
+            file.addMethod(CtNewMethod.make("public static void prepareFixtures() {" + prepare + "}", file));
+            // javassist bug, too lazy to test if it works on GA 20
+            String size = sweep == null ? "" :
+                    "this." + sweep.getName() + " = (" + sweep.getType().getName() + ") " + this.size + "L; setup.run();";
+            CtConstructor constructor = CtNewConstructor.make("public " + file.getSimpleName() + "() {" + fixtures + size + "}", file);
+            file.addConstructor(constructor);
+
+            if (roles != null) {
+                group(file);
+                entryPoints(file, invoker);
+                return file.toBytecode();
+            }
+
+            CtMethod measure;
+            // Writes the per-method latencies of a mix, after the result
+            String latencies = "stream.writeInt(0);\n";
+            // A single call for the open loop, the next call of the sequence for a mix
+            String next;
+
+            if (mix != null) {
+                // Each method is a case, picked by the next byte of the sequence
+                StringBuilder cases = new StringBuilder("switch (sequence[at]) {\n");
+                StringBuilder weights = new StringBuilder();
+                StringBuilder written = new StringBuilder("stream.writeInt(" + mix.size() + ");\n" +
+                        "double cost = " + Fork.class.getName() + ".timerCost();\n");
+                int k = 0;
+                for (Map.Entry<String, Integer> entry : mix.entrySet()) {
+                    String call = "super." + entry.getKey() + "()";
+                    if (!unit.getClass().getDeclaredMethod(entry.getKey()).getReturnType().equals(void.class)) {
+                        call = "op.op(" + call + ")";
+                    }
+                    cases.append("    case ").append(k).append(": ").append(call).append("; break;\n");
+                    weights.append(k == 0 ? "" : ", ").append(entry.getValue());
+                    written.append("stream.writeUTF(\"").append(entry.getKey()).append("\");\n")
+                            .append("stream.writeDouble(").append(Fork.class.getName())
+                            .append(".latency(time[").append(k).append("], count[").append(k).append("], cost));\n");
+                    k++;
+                }
+                cases.append("}\n");
+                next = cases + "    at = (at + 1) & (sequence.length - 1);\n";
+
+                file.addField(CtField.make("private byte[] sequence = " + Fork.class.getName() +
+                        ".sequence(new int[] {" + weights + "});", file));
+                file.addField(CtField.make("private int cursor;", file));
+
+                measure = CtNewMethod.make("public long measure(int reps) {" +
+                        "int done = 0;\n" +
+                        "int at = cursor;\n" +
+                        "long start = System.nanoTime();\n" +
+                        "do {\n" +
+                        cases +
+                        "    at = (at + 1) & (sequence.length - 1);\n" +
+                        "} while (++done < reps);\n" +
+                        "long end = System.nanoTime();" +
+                        "cursor = at;\n" +
+                        "return (long) (end - start);}", file);
+                // Times each call on its own, only for the per-method latency
+                file.addMethod(CtNewMethod.make("public void timed(long[] time, long[] count, long ops) {\n" +
+                        "int at = cursor;\n" +
+                        "for (long i = 0L; i < ops; i++) {\n" +
+                        "    int k = sequence[at];\n" +
+                        "    long start = System.nanoTime();\n" +
+                        cases +
+                        "    time[k] = time[k] + (System.nanoTime() - start);\n" +
+                        "    count[k] = count[k] + 1L;\n" +
+                        "    at = (at + 1) & (sequence.length - 1);\n" +
+                        "}\n" +
+                        "cursor = at;\n" +
+                        "}", file));
+
+                latencies = "long[] time = new long[" + mix.size() + "];\n" +
+                        "long[] count = new long[" + mix.size() + "];\n" +
+                        "setup.run();\n" +
+                        "timed(time, count, Math.min(done, " + Fork.class.getName() + ".TIMED));\n" +
+                        "teardown.run();\n" + written;
+            } else if (this.unit.getClass().getDeclaredMethod(meName).getReturnType().equals(void.class)) {
+                // Make it easier and not need to return null for no reason... resulting in this boilerplate...
+                next = "super." + meName + "();\n";
+
+                measure = CtNewMethod.make("public long measure(int reps) {" +
+                        "int done = 0;\n" +
+                        "long start = System.nanoTime();\n" +
+                        "do {\n" +
+                        "    super." + meName + "();\n" +
+                        "} while (++done < reps);\n" +
+                        "long end = System.nanoTime();" +
+                        "return (long) (end - start);}", file);
+            } else {
+                next = "op.op(super." + meName + "());\n";
+                measure = CtNewMethod.make("public long measure(int reps) {" +
+                        "int done = 0;\n" +
+                        "long start = System.nanoTime();\n" +
+                        "do {\n" +
+                        "    op.op(super." + meName + "());\n" +
+                        "} while (++done < reps);\n" +
+                        "long end = System.nanoTime();" +
+                        "return (long) (end - start);}", file);
+            }
+            file.addMethod(measure);
+
+            String fork = Fork.class.getName();
+            String open = "";
+            if (arrivals != null) {
+                // Each call waits for its scheduled start, and is timed from it rather than from when it
+                // could start, so a stall counts against every call queued behind it. Running over twice
+                // the time means the rate can't be kept up, the calls not made would only be later.
+                file.addMethod(CtNewMethod.make("public long open(double interval, long duration, java.util.SplittableRandom random) {\n" +
+                        (mix == null ? "" : "int at = cursor;\n") +
+                        "long start = System.nanoTime();\n" +
+                        "double offset = 0D;\n" +
+                        "long calls = 0L;\n" +
+                        "while ((long) offset < duration && System.nanoTime() - start < 2L * duration) {\n" +
+                        "    long intended = start + (long) offset;\n" +
+                        "    while (System.nanoTime() - intended < 0L) {}\n" +
+                        next +
+                        "    " + fork + ".arrived(System.nanoTime() - intended);\n" +
+                        "    calls++;\n" +
+                        "    offset = offset + " + (arrivals == Arrivals.POISSON ?
+                                "-Math.log(1D - random.nextDouble()) * interval" : "interval") + ";\n" +
+                        "}\n" +
+                        (mix == null ? "" : "cursor = at;\n") +
+                        "return calls;\n" +
+                        "}", file));
+
+                StringBuilder list = new StringBuilder();
+                for (double rate : rates.length == 0 ? Fork.FRACTIONS : rates) {
+                    list.append(list.length() == 0 ? "" : ", ").append(rate).append('D');
+                }
+                long duration = measurementTime > 0 ? measurementTime : Fork.RATE_TIME;
+                // Back to back calls through the open loop itself, which also times each call and
+                // schedules the next, run until it gives up at twice the time. The first run only
+                // gets open() compiled, the second is the capacity.
+                open = "java.util.SplittableRandom random = new java.util.SplittableRandom(" + fork + ".SEED);\n" +
+                        "double capacity = 0D;\n" +
+                        "for (int i = 0; i < 2; i++) {\n" +
+                        "    setup.run();\n" +
+                        "    long start = System.nanoTime();\n" +
+                        "    capacity = open(0D, " + duration / 20 + "L, random) / ((System.nanoTime() - start) / 1.0E9D);\n" +
+                        "    teardown.run();\n" +
+                        "}\n" +
+                        fork + ".clear();\n" +
+                        "double[] rates = new double[] {" + list + "};\n" +
+                        "for (int r = 0; r < rates.length; r++) {\n" +
+                        // Without rates, fractions of the capacity
+                        "    double rate = " + (rates.length == 0 ? "rates[r] * capacity" : "rates[r]") + ";\n" +
+                        "    setup.run();\n" +
+                        "    long begin = System.nanoTime();\n" +
+                        "    long calls = open(1.0E9D / rate, " + duration + "L, random);\n" +
+                        "    long elapsed = System.nanoTime() - begin;\n" +
+                        "    teardown.run();\n" +
+                        "    " + fork + ".rate(rate, calls, elapsed);\n" +
+                        "}\n";
+            }
+
+            // Through measure, so that it is compiled as a method on its own before it is measured
+            // rather than only its loop being compiled on-stack
+            CtMethod warmup = CtNewMethod.make("public long warmup() {\n" +
+                    "int done = 0;\n" +
+                    "long start = System.nanoTime();\n" +
+                    "do {\n" +
+                    "    measure(" + WARMUP_REPS + ");\n" +
+                    "    done += " + WARMUP_REPS + ";\n" +
+                    "} while (done < " + warmupIterations + ");\n" +
+                    "long end = System.nanoTime();\n" +
+                    "long elapsed = end - start;\n" +
+                    "return (long) (elapsed / done);\n" +
+                    "}\n", file);
+            file.addMethod(warmup);
+
+            // Either the profile is bounded by the iterations, or by the deadline
+            long time = soakTime > 0 ? soakTime : measurementTime;
+            long limit = time > 0 ? Long.MAX_VALUE : profileIterations;
+            String deadline = time > 0 ? " && System.nanoTime() - deadline < 0L" : "";
+
+            CtMethod method = CtNewMethod.make("public void doTest(java.io.DataOutputStream stream) {\n" +
+                    "try {System.out.println(\"Starting test " + name + "\");\n" +
+                    "System.out.println();\n" +
+                    "System.out.println(\"Warming up " + name + "\");\n" +
+                    "long warmTime = warmup();\n" +
+                    "System.out.println(\"Finished warmup for " + name + "\");\n" +
+                    "System.out.println();\n" +
+
+                    "System.out.println(\"Starting profile for " + name + "\");\n" +
+
+                    /*
+                    In order to get a quantifiable time
+                           in the case that warmTime, which is the time
+                           taken for each operation in the warmup to complete,
+                           is less than the granularity or latency value
+                           for the system clock, we need to iterate a few
+                           times and get the value of that. The reps is calculated
+                           by the amount of times the operation will complete before
+                           the system clock updates, given a generous 100 ns.
+                    */
+                    "\n" +
+                    "long nanoAcc = nanoAccuracy();\n" +
+                    "int reps = calcIterations(warmTime, nanoAcc, 0);\n" +
+                    "\n" +
+                    // Do not divide this number
+                    // attempting to do so will result in a massive deviation of the
+                    // actual time due to rounding retardation
+                    // Therefore pass this raw to the socket pipeline
+                    "java.math.BigDecimal totalTime = new java.math.BigDecimal(0);\n" +
+                    // Long, a time budget can easily run more than an int's worth of ops
+                    "long done = 0L;\n" +
+                    "long batches = 0L;\n" +
+                    "long deadline = System.nanoTime() + " + time + "L;\n" +
+                    "int tier = " + fork + ".tier(getClass().getName());\n" +
+                    fork + ".begin(\"" + name + "\");\n" +
+
+                    "do {\n" +
+                    "    long time = 0L;\n" +
+                    "    int finished = 0;\n" +
+                    "    setup.run();\n" +
+                    "    do {\n" +
+                    "        reps++;\n" +
+                    // The determination method breaks very often, requiring this check
+                    "        if (reps + done >= " + limit + "L)\n" +
+                    "            reps = 1;\n" +
+                    "        time = measure(reps);\n" +
+                    "        finished = reps;\n" +
+                    // Calculate the reps for the next measurement loop
+                    "        reps = calcIterations(time / reps, nanoAcc = nanoAccuracy(), " +
+                    "(int) Math.min((" + limit + "L - (done + finished)) - 1L, 2147483647L));\n" +
+                    "    } while (time <= nanoAcc);\n" +
+                    "    teardown.run();\n" +
+                    "    totalTime = totalTime.add(java.math.BigDecimal.valueOf(time));\n" +
+                    "    done += finished;\n" +
+                    "    batches++;\n" +
+                    "    " + fork + ".batch((long) finished, time);\n" +
+                    "} while (done < " + limit + "L" + deadline + ");\n" +
+
+                    fork + ".end();\n" +
+                    open +
+                    fork + ".result(stream);\n" +
+                    "stream.writeDouble(totalTime.doubleValue());\n" +
+                    "stream.writeLong(done);\n" +
+                    "stream.writeLong(batches);\n" +
+                    "stream.writeLong(nanoAcc);\n" +
+                    latencies +
+                    // No single shot calls
+                    "stream.writeInt(0);\n" +
+                    "stream.writeInt(tier);\n" +
+                    fork + ".contention(stream);\n" +
+                    fork + ".window(stream);\n" +
+                    fork + ".memory(stream);\n" +
+                    "op = null;\n" +
+                    "System.out.println(\"Finished testing of " + name + "\");\n" +
+                    "System.out.println();\n" +
+                    "System.out.println(\"Done test for " + name + "\");\n" +
+                    "System.out.println();\n" +
+                    "} catch (Exception e) {\n" +
+                    "    e.printStackTrace();\n" +
+                    "    " + fork + ".failed(stream);\n" +
+                    "}}", file);
+            file.addMethod(method);
+
+            entryPoints(file, invoker);
+
+            return file.toBytecode();
+        }
+
+        /**
+         * Adds the entry points of the fork to the invoker, main for a cold fork and run for a warm one
+         *
+         * @param file the invoker
+         * @param invoker the name of the invoker
+         * @throws CannotCompileException ...
+         */
+        private void entryPoints(CtClass file, String invoker) throws CannotCompileException {
+            String fork = Fork.class.getName();
+            // Also called by warm forks, which have settled while waiting but still warm up the benchmark
+            CtMethod run = CtNewMethod.make("public static void run(java.io.DataOutputStream stream) {\n" +
+                    // Loads the classes the JIT check needs now, or loading them later could deoptimize measure()
+                    fork + ".preload(\"" + invoker + "\");\n" +
+                    invoker + " test = new " + invoker + "();\n" +
+                    "System.out.println(\"Settling VM for " + name + "\");\n" +
+                    fork + ".warmUp();\n" +
+                    // extra runs to take up time
+                    "do {" +
+                    fork + ".warmed(test.warmup());" +
+                    "} while (" + fork + ".settling());" +
+                    fork + ".warmedUp();\n" +
+                    "test.doTest(stream);\n" +
+                    "stream.close();\n" +
+                    "}", file);
+            file.addMethod(run);
+
+            if (singleShot()) {
+                String call = "test." + meName + "()";
+                try {
+                    if (!unit.getClass().getDeclaredMethod(meName).getReturnType().equals(void.class)) {
+                        call = "test.op.op(" + call + ")";
+                    }
+                } catch (NoSuchMethodException e) {
+                    throw new CannotCompileException(e);
+                }
+
+                // Nothing runs before the first call that the unit doesn't need itself
+                file.addMethod(CtNewMethod.make("public static void main(String[] args) {\n" +
+                        "java.io.DataOutputStream stream = " + fork + ".connect(args);\n" +
+                        "try {\n" +
+                        fork + ".prime();\n" +
+                        "prepareFixtures();\n" +
+                        "long[] times = new long[" + (shotCalls + 1) + "];\n" +
+                        "long[] loads = new long[" + (shotCalls + 1) + "];\n" +
+                        "java.lang.management.ClassLoadingMXBean loading = java.lang.management.ManagementFactory.getClassLoadingMXBean();\n" +
+                        "long loaded = loading.getTotalLoadedClassCount();\n" +
+                        "long start = System.nanoTime();\n" +
+                        invoker + " test = new " + invoker + "();\n" +
+                        "times[0] = System.nanoTime() - start;\n" +
+                        "loads[0] = loading.getTotalLoadedClassCount() - loaded;\n" +
+                        "test.setup.run();\n" +
+                        "for (int i = 1; i < times.length; i++) {\n" +
+                        "    loaded = loading.getTotalLoadedClassCount();\n" +
+                        "    start = System.nanoTime();\n" +
+                        "    " + call + ";\n" +
+                        "    times[i] = System.nanoTime() - start;\n" +
+                        "    loads[i] = loading.getTotalLoadedClassCount() - loaded;\n" +
+                        "}\n" +
+                        "test.teardown.run();\n" +
+                        fork + ".shots(stream, times, loads, test.nanoAccuracy());\n" +
+                        "} catch (Exception e) {\n" +
+                        "    e.printStackTrace();\n" +
+                        "    " + fork + ".failed(stream);\n" +
+                        "}\n" +
+                        "stream.close();\n" +
+                        "}", file));
+                return;
+            }
+
+            CtMethod main = CtNewMethod.make("public static void main(String[] args) {\n" +
+                    // Connect first, so the parent knows who to kill if this hangs
+                    "java.io.DataOutputStream stream = " + fork + ".connect(args);\n" +
+                    fork + ".settle();\n" +
+                    "run(stream);\n" +
+                    "}", file);
+            file.addMethod(main);
+        }
+
+        /**
+         * Adds the measurement of a thread group to the invoker
+         *
+         * <p>Each role gets a method looping over its measured method until the phase changes, counting
+         * only the calls in the measurement window, and loop(int, long[]) picks the role for a thread.
+         * The threads themselves are run by {@link Fork#group(Object, String, int[], long)}.</p>
+         *
+         * @param file the invoker
+         * @throws CannotCompileException ...
+         * @throws NoSuchMethodException ...
+         */
+        private void group(CtClass file) throws CannotCompileException, NoSuchMethodException {
+            String fork = Fork.class.getName();
+            StringBuilder warmup = new StringBuilder("public long warmup() {\n" +
+                    "long start = System.nanoTime();\n" +
+                    "for (int i = 0; i < " + warmupIterations + "; i++) {\n");
+            StringBuilder loop = new StringBuilder("public void loop(int role, long[] measured) {\n" +
+                    "switch (role) {\n");
+            StringBuilder threads = new StringBuilder();
+            StringBuilder names = new StringBuilder();
+            int k = 0;
+            for (Map.Entry<String, Integer> role : roles.entrySet()) {
+                Class<?> type = unit.getClass().getDeclaredMethod(role.getKey()).getReturnType();
+                String call = "super." + role.getKey() + "()";
+                // Consumers return null when there's nothing for them
+                if (!type.isPrimitive()) call = "op.op(java.util.Objects.hashCode(" + call + "))";
+                else if (type != void.class) call = "op.op(" + call + ")";
+
+                // Called over and over like measure, so the calls are compiled as a method
+                file.addMethod(CtNewMethod.make("public void batch" + k + "() {\n" +
+                        "for (int i = 0; i < " + WARMUP_REPS + "; i++) { " + call + "; }\n" +
+                        "}", file));
+                file.addMethod(CtNewMethod.make("public void role" + k + "(long[] measured) {\n" +
+                        "while (" + fork + ".phase() == 0) { batch" + k + "(); }\n" +
+                        "long ops = 0L;\n" +
+                        "long start = System.nanoTime();\n" +
+                        "while (" + fork + ".phase() == 1) { batch" + k + "(); ops += " + WARMUP_REPS + "L; }\n" +
+                        "measured[1] = System.nanoTime() - start;\n" +
+                        "measured[0] = ops;\n" +
+                        "}", file));
+                warmup.append("    ").append(call).append(";\n");
+                loop.append("    case ").append(k).append(": role").append(k).append("(measured); break;\n");
+                threads.append(k == 0 ? "" : ", ").append(role.getValue());
+                names.append(k == 0 ? "" : ", ").append('"').append(role.getKey()).append('"');
+                k++;
+            }
+            // Single threaded, only to get the methods compiled before the threads start
+            file.addMethod(CtNewMethod.make(warmup + "}\n" +
+                    "return (System.nanoTime() - start) / " + warmupIterations + "L;\n" +
+                    "}", file));
+            file.addMethod(CtNewMethod.make(loop + "}}", file));
+
+            long time = measurementTime > 0 ? measurementTime : Fork.GROUP_TIME;
+            file.addMethod(CtNewMethod.make("public void doTest(java.io.DataOutputStream stream) {\n" +
+                    "try {System.out.println(\"Starting test " + name + "\");\n" +
+                    "System.out.println();\n" +
+                    "long nanoAcc = nanoAccuracy();\n" +
+                    "setup.run();\n" +
+                    "System.out.println(\"Starting profile for " + name + "\");\n" +
+                    "long[][][] measured = " + fork + ".group(this, \"" + name + "\", new String[] {" + names + "}, " +
+                    "new int[] {" + threads + "}, " + time + "L);\n" +
+                    "teardown.run();\n" +
+                    fork + ".report(stream, measured, new String[] {" + names + "}, nanoAcc);\n" +
+                    "op = null;\n" +
+                    "System.out.println(\"Finished testing of " + name + "\");\n" +
+                    "System.out.println();\n" +
+                    "System.out.println(\"Done test for " + name + "\");\n" +
+                    "System.out.println();\n" +
+                    "} catch (Exception e) {\n" +
+                    "    e.printStackTrace();\n" +
+                    "    " + fork + ".failed(stream);\n" +
+                    "}}", file));
+        }
+
+        /**
+         * Recursively obtains the dependencies of the class and writes them to the working directory
+         *
+         * @param classPool the pool to look up the dependencies in
+         * @param bytecode the bytecode of the class
+         * @throws NotFoundException ...
+         * @throws IOException ...
+         * @throws CannotCompileException ...
+         */
+        private void getDep(ClassPool classPool, byte[] bytecode) throws NotFoundException, IOException, CannotCompileException {
+            ClassReader reader = new ClassReader(bytecode);
+            DependencyVisitor visitor = new DependencyVisitor();
+            reader.accept(visitor, 0);
+            for (String dep : visitor.getClasses()) {
+                if (dep.equals(reader.getClassName())) continue;
+                if (isProvided(dep)) continue;
+                // Claims it, other Marks may be walking the same classes
+                if (!(classes == null ? depped : written.computeIfAbsent(classes,
+                        k -> Collections.newSetFromMap(new ConcurrentHashMap<>()))).add(dep)) continue;
+
+                CtClass depend = classPool.get(dep);
+                depend.writeFile(classes == null ? "." : classes.getPath());
+                getDep(classPool, depend.toBytecode());
+            }
+        }
+
+        /**
+         * Profiles the method
+         *
+         * <p>Synchronization on the class is necessary in order to prevent the output from becoming
+         * screwed up, also prevents a ton of process errors related to IO.</p>
+         *
+         * <p>A fork that exits before reporting, or runs past the timeout, gets a failed result
+         * instead of blocking the rest of the run.</p>
+         *
+         * @param environment the JVM and flags to run the fork with
+         * @return the result of the test
+         */
+        public Result test(Environment environment) {
+            return test(environment, null);
+        }
+
+        /**
+         * Profiles the method in a fork here or on an agent
+         *
+         * <p>Forks here run one at a time, a fork on an agent only has the machine of the agent to
+         * itself.</p>
+         *
+         * @param environment the JVM and flags to run the fork with
+         * @param agent the agent to run the fork on, null to run it here
+         * @return the result of the test, null if the agent couldn't be reached or hung up before
+         * the fork finished, so the test can be run elsewhere
+         */
+        public Result test(Environment environment, String agent) {
+            synchronized (agent == null ? Mark.class : this) {
+                if (invoker == null) {
+                    return Result.fail(MiniMark.this, name, "invoker could not be generated");
+                }
+
+                Launch fork = null;
+                try {
+                    File flight = null;
+                    if (flightDirectory != null) {
+                        flight = new File(flightDirectory, name + environment.suffix + ".jfr").getAbsoluteFile();
+                        if (!flightDirectory.isDirectory() && !flightDirectory.mkdirs()) {
+                            throw new IOException("Cannot create " + flightDirectory);
+                        }
+                        Files.deleteIfExists(flight.toPath());
+                    }
+
+                    List<String> commands = compileCommands();
+                    // JIT flags can only be set on startup
+                    if (warmForks > 0 && commands.isEmpty() && classes == null && !singleShot() && agent == null) {
+                        fork = warm(environment);
+                    }
+
+                    long deadline;
+                    if (fork != null) {
+                        fork.out.writeUTF(invoker);
+                        fork.out.writeUTF(flight == null ? "" : flight.getPath());
+                        fork.out.flush();
+                        deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+                    } else {
+                        List<String> extra = new ArrayList<>(commands);
+                        if (flight != null) extra.add("-Dminimark.jfr=" + flight);
+                        // An agent uses the bundle as the classpath
+                        fork = launch(environment, classes == null ? environment.classpath :
+                                Lists.newArrayList("-classpath", classes.getPath()), extra, invoker, agent);
+                        deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+
+                        if (!fork.accept(deadline)) {
+                            if (fork.process.isAlive()) return kill(environment, fork.process, fork.pid);
+                            if (lost(fork, agent)) return null;
+                            if (agent != null && fork.process.exitValue() == Agent.REJECTED) {
+                                return Result.fail(MiniMark.this, name, "rejected by agent " + agent);
+                            }
+                            return Result.fail(MiniMark.this, name, "fork exited with " + fork.process.exitValue());
+                        }
+                    }
+
+                    // The process ID is only meaningful here
+                    Noise before = agent == null ? Noise.sample(fork.pid) : null;
+                    for (Listener listener : listeners) listener.forkStarted(name, environment.label, fork.pid);
+
+                    // A crash closes the connection, so only a hang needs the timeout
+                    fork.conn.setSoTimeout(deadline == Long.MAX_VALUE ? 0 :
+                            (int) Math.max(1L, deadline - System.currentTimeMillis()));
+
+                    List<Double> iterations = new ArrayList<>();
+                    List<Window> soak = new ArrayList<>();
+                    List<Rate> rates = new ArrayList<>();
+                    for (byte event = fork.in.readByte(); event != Fork.RESULT; event = fork.in.readByte()) {
+                        if (event == Fork.WARMUP) {
+                            int round = fork.in.readInt();
+                            long time = fork.in.readLong();
+                            for (Listener listener : listeners) listener.warmup(name, environment.label, round, time);
+                        } else if (event == Fork.MEASURED) {
+                            long ops = fork.in.readLong();
+                            long time = fork.in.readLong();
+                            iterations.add((double) time / ops);
+                            for (Listener listener : listeners) {
+                                listener.iteration(name, environment.label, iterations.size(), ops, time);
+                            }
+                        } else if (event == Fork.SOAK) {
+                            soak.add(new Window(fork.in.readLong(), fork.in.readLong(), fork.in.readLong(),
+                                    fork.in.readLong(), fork.in.readLong(), fork.in.readLong(), fork.in.readLong(),
+                                    fork.in.readLong()));
+                        } else if (event == Fork.OPEN) {
+                            rates.add(new Rate(fork.in.readDouble(), fork.in.readLong(), fork.in.readLong(),
+                                    fork.in.readLong(), fork.in.readLong(), fork.in.readLong(), fork.in.readLong(),
+                                    fork.in.readLong()));
+                        } else {
+                            return Result.fail(MiniMark.this, name, "unknown event " + event);
+                        }
+                    }
+
+                    double d = fork.in.readDouble();
+                    if (d < 0) {
+                        return Result.fail(MiniMark.this, name, "exception in fork");
+                    }
+                    long ops = fork.in.readLong();
+
+                    Result result = Result.compile(MiniMark.this, name, d / ops);
+                    result.ops = ops;
+                    result.iterations.addAll(iterations);
+                    result.soak.addAll(soak);
+                    result.rates.addAll(rates);
+                    result.warnings.addAll(Window.drift(soak));
+                    result.batches = fork.in.readLong();
+                    result.resolution = fork.in.readLong();
+                    for (int i = fork.in.readInt(); i > 0; i--) {
+                        result.methods.put(fork.in.readUTF(), fork.in.readDouble());
+                    }
+                    int shots = fork.in.readInt();
+                    if (shots > 0) {
+                        long[] times = new long[shots];
+                        long[] loads = new long[shots];
+                        for (int i = 0; i < shots; i++) {
+                            times[i] = fork.in.readLong();
+                            loads[i] = fork.in.readLong();
+                        }
+                        result.shots.add(times);
+                        result.loads.add(loads);
+                    }
+                    result.tier = fork.in.readInt();
+                    for (int i = fork.in.readInt(); i > 0; i--) {
+                        result.contention.put(fork.in.readUTF(), new Contention(fork.in.readLong(), fork.in.readLong(),
+                                fork.in.readLong(), fork.in.readLong(), fork.in.readLong()));
+                    }
+                    for (int i = fork.in.readInt(); i > 0; i--) {
+                        result.monitors.put(fork.in.readUTF(), fork.in.readDouble());
+                    }
+                    long start = fork.in.readLong();
+                    long end = fork.in.readLong();
+                    String memory = fork.in.readUTF();
+                    if (!memory.isEmpty()) {
+                        result.nativeMemory = nativeMemory(memory);
+                        if (!memory.contains("Native Memory Tracking:")) {
+                            result.warnings.add("no native memory tracking: " + memory.trim());
+                        }
+                    }
+                    if (fork.safepoints != null && start >= 0) {
+                        fork.close();
+                        // The log is only complete once the fork has exited
+                        fork.process.waitFor(LOG_WAIT, TimeUnit.MILLISECONDS);
+                        long[] safepoints = safepoints(fork.safepoints, start, end);
+                        result.safepoints = safepoints[0];
+                        result.safepointTime = safepoints[1];
+                        result.timeToSafepoint = safepoints[2];
+                        result.window = TimeUnit.MILLISECONDS.toNanos(end - start);
+                        if (result.safepointTime > result.window * SAFEPOINT_TOLERANCE) {
+                            result.warnings.add(String.format("%.1f%% of the measurement in safepoints",
+                                    100D * result.safepointTime / result.window));
+                        }
+                    }
+                    String flags = String.join(" ", MiniMark.this.args) + " " + String.join(" ", environment.flags);
+                    // Capped tiers compile as far as they're allowed to
+                    if (result.tier >= 0 && result.tier < 4 && !flags.contains("TieredStopAtLevel") && !flags.contains("-Xint")) {
+                        result.warnings.add(result.tier == 0 ? "measure() still interpreted when measuring started" :
+                                "measure() only at tier " + result.tier + " when measuring started");
+                    }
+                    Noise after = agent == null ? Noise.sample(fork.pid) : null;
+                    if (before != null && after != null) {
+                        result.noise = before.otherCores(after);
+                        result.load = after.load;
+                        if (result.noise > NOISE_TOLERANCE) {
+                            result.warnings.add(String.format("busy machine (%.2f other cores busy, load %.2f)",
+                                    result.noise, result.load));
+                        }
+                    }
+                    if (flight != null) {
+                        result.profile = summarize(flight);
+                    }
+                    return result;
+                } catch (SocketTimeoutException e) {
+                    return kill(environment, fork.process, fork.pid);
+                } catch (EOFException e) {
+                    if (lost(fork, agent)) return null;
+                    return Result.fail(MiniMark.this, name, "fork crashed");
+                } catch (IOException e) {
+                    if (lost(fork, agent)) return null;
+                    e.printStackTrace();
+                    return Result.fail(MiniMark.this, name, e.toString());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Result.fail(MiniMark.this, name, "interrupted");
+                } finally {
+                    if (fork != null) {
+                        fork.close();
+                        if (fork.safepoints != null) fork.safepoints.delete();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Summarizes the flight recording of the fork, which is written before the result is sent
+         *
+         * @param flight the recording
+         * @return the summary, or why there isn't one
+         */
+        private String summarize(File flight) {
+            if (!flight.exists()) return "  no recording, does the fork's JVM have JFR?\n";
+            try {
+                return Flight.summarize(flight.toPath());
+            } catch (IOException | RuntimeException | LinkageError e) {
+                return "  cannot read recording: " + e + "\n";
+            }
+        }
+
+        /**
+         * Turns the CompilerControl annotations relevant to this method into JVM flags
+         *
+         * @return the -XX:CompileCommand flags for the fork
+         */
+        private List<String> compileCommands() {
+            List<String> commands = new ArrayList<>();
+            Deque<Class<?>> classes = new ArrayDeque<>();
+            for (Class<?> cls = unit.getClass(); cls != Unit.class && cls != null; cls = cls.getSuperclass()) {
+                classes.add(cls);
+            }
+
+            while (!classes.isEmpty()) {
+                Class<?> cls = classes.poll();
+                Collections.addAll(classes, cls.getDeclaredClasses());
+
+                for (Method method : cls.getDeclaredMethods()) {
+                    CompilerControl control = method.getAnnotation(CompilerControl.class);
+                    if (control == null) continue;
+                    // Other measured methods only control their own forks
+                    if (method.isAnnotationPresent(Measure.class) && (cls != unit.getClass() || !measures(method.getName()))) {
+                        continue;
+                    }
+
+                    commands.add("-XX:CompileCommand=" + control.value().command + "," +
+                            cls.getName() + "::" + method.getName());
+                }
+            }
+
+            return commands;
+        }
+
+        /**
+         * Whether the benchmark can run on an agent
+         *
+         * @return true if nothing of it has to stay on this machine
+         */
+        private boolean remote() {
+            // The recordings and safepoint logs are files on the machine of the fork
+            return invoker != null && pair == null && classes == null && !singleShot() && flightDirectory == null &&
+                    !safepoints;
+        }
+
+        /**
+         * Whether the result is only its average, which is all that is stored for it
+         *
+         * <p>Thread groups, mixes and single shots also have the latency of each method or call,
+         * and comparisons are always run, so none of them are stored or reused.</p>
+         *
+         * @return true if the result can be stored and reused
+         */
+        private boolean storable() {
+            return roles == null && mix == null && pair == null && !singleShot();
+        }
+
+        /**
+         * Whether the benchmark measures the first calls in fresh forks rather than steady state
+         *
+         * @return true if running single shots and this is a single method
+         */
+        private boolean singleShot() {
+            return shotForks > 0 && mix == null && roles == null;
+        }
+
+        /**
+         * Whether the method is measured by this benchmark
+         *
+         * @param method the name of the method
+         * @return true if it is the measured method or part of the mix or group
+         */
+        private boolean measures(String method) {
+            if (mix != null) return mix.containsKey(method);
+            if (roles != null) return roles.containsKey(method);
+            return method.equals(meName);
+        }
+
+        /**
+         * Whether a fork on an agent failed because the agent went away rather than the fork, so
+         * the test can run elsewhere instead of counting as a failure
+         *
+         * @param fork the fork, null if the agent couldn't be reached
+         * @param agent the agent, null for a fork here
+         * @return true if the agent hung up without the exit code of the fork
+         */
+        private boolean lost(Launch fork, String agent) {
+            if (agent == null) return false;
+            if (fork == null) return true;
+            try {
+                // A fork that crashed still has its exit code sent by a live agent
+                if (!fork.process.waitFor(LOST_WAIT, TimeUnit.MILLISECONDS)) return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return fork.process.exitValue() == Agent.LOST;
+        }
+
+        /**
+         * Thread dumps a fork that has run out of time, then kills it
+         *
+         * @param environment the environment of the fork
+         * @param process the fork
+         * @param pid the process ID reported by the fork, -1 if it never connected
+         * @return the failed result
+         */
+        private Result kill(Environment environment, Process process, long pid) {
+            String dump = pid < 0 ? "fork never connected" :
+                    process instanceof Agent.Remote ? "no thread dump of a fork on an agent" : threadDump(environment, pid);
+            System.out.println("Timed out " + name + ", thread dump:");
+            System.out.println(dump);
+
+            process.destroyForcibly();
+            try {
+                process.waitFor(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            Result failed = Result.fail(MiniMark.this, name, "timed out after " + timeout + " ms");
+            failed.dump = dump;
+            return failed;
+        }
+
+        /**
+         * Dumps the threads of the given JVM with jstack, which is only present on JDKs
+         *
+         * @param environment the environment of the fork, jstack has to match its JVM
+         * @param pid the process ID
+         * @return the thread dump, or why it couldn't be taken
+         */
+        private String threadDump(Environment environment, long pid) {
+            File jstack = jdkTool(environment.javaHome, "jstack");
+            if (jstack == null) return "no jstack in " + environment.javaHome;
+
+            try {
+                Process dump = new ProcessBuilder(jstack.getPath(), "-l", String.valueOf(pid))
+                        .redirectErrorStream(true).start();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                int read;
+                try (InputStream in = dump.getInputStream()) {
+                    while ((read = in.read(buf)) != -1) out.write(buf, 0, read);
+                }
+                dump.waitFor(10, TimeUnit.SECONDS);
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                return "jstack failed: " + e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "interrupted dumping threads";
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the CPU time of the machine and of a fork, from /proc on Linux
+     *
+     * <p>Two snapshots tell how much of the machine was busy with something other than the fork
+     * while it ran.</p>
+     *
+     * @author caojohnny
+     */
+    private static class Noise {
+        private final long total;
+        private final long busy;
+        private final long fork;
+        private final int cpus;
+        private final double load;
+
+        private Noise(long total, long busy, long fork, int cpus, double load) {
+            this.total = total;
+            this.busy = busy;
+            this.fork = fork;
+            this.cpus = cpus;
+            this.load = load;
+        }
+
+        /**
+         * Takes a snapshot
+         *
+         * @param pid the process ID of the fork
+         * @return the snapshot, or null if not on Linux or the fork is gone
+         */
+        static Noise sample(long pid) {
+            try {
+                List<String> stat = Files.readAllLines(Paths.get("/proc/stat"), StandardCharsets.UTF_8);
+                // cpu user nice system idle iowait irq softirq steal
+                String[] cpu = stat.get(0).trim().split("\\s+");
+                long total = 0;
+                for (int i = 1; i <= 8 && i < cpu.length; i++) total += Long.parseLong(cpu[i]);
+                long idle = Long.parseLong(cpu[4]) + Long.parseLong(cpu[5]);
+                int cpus = 0;
+                for (String line : stat) {
+                    if (line.startsWith("cpu") && Character.isDigit(line.charAt(3))) cpus++;
+                }
+
+                // The name can contain spaces, utime and stime are the 12th and 13th after it
+                String self = new String(Files.readAllBytes(Paths.get("/proc/" + pid + "/stat")), StandardCharsets.UTF_8);
+                String[] fields = self.substring(self.lastIndexOf(')') + 2).split(" ");
+                long fork = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+
+                String loadavg = new String(Files.readAllBytes(Paths.get("/proc/loadavg")), StandardCharsets.UTF_8);
+                double load = Double.parseDouble(loadavg.substring(0, loadavg.indexOf(' ')));
+
+                return new Noise(total, total - idle, fork, Math.max(1, cpus), load);
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * The average amount of cores busy with something other than the fork between the snapshots
+         *
+         * @param later the later snapshot
+         * @return the cores
+         */
+        double otherCores(Noise later) {
+            long elapsed = later.total - total;
+            if (elapsed <= 0) return 0;
+            long other = (later.busy - busy) - (later.fork - fork);
+            return Math.max(0, other) / ((double) elapsed / cpus);
+        }
+    }
+
+    /**
+     * The JVM and flags a fork runs with, one cell of the matrix
+     *
+     * @author caojohnny
+     */
+    private static class Environment {
+        private final String label;
+        /** The JDK home a fork on an agent asks for, empty for the agent's own JVM */
+        private final String jdk;
+        private final String javaHome;
+        private final List<String> flags;
+        /** Keeps the files of each environment apart */
+        private final String suffix;
+        /** Where the fork finds the benchmark, the working directory unless it has an archive */
+        private List<String> classpath = Lists.newArrayList("-classpath", ".");
+
+        Environment(String label, String jdk, String javaHome, List<String> flags, String suffix) {
+            this.label = label;
+            this.jdk = jdk;
+            this.javaHome = javaHome;
+            this.flags = flags;
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * Prints the lines of a result in a section after the results table
+     *
+     * @author caojohnny
+     */
+    private interface Section {
+        void print(Mark mark, Environment environment, Result result);
+    }
+
+    /**
+     * A started fork and the parent's end of its control channel
+     *
+     * @author caojohnny
+     */
+    private static class Launch {
+        private final Process process;
+        private final ServerSocket socket;
+        private Socket conn;
+        private DataInputStream in;
+        private DataOutputStream out;
+        /** The process ID reported by the fork, -1 until it connects */
+        private long pid = -1L;
+        /** The safepoint log of the fork, null if not logging */
+        private File safepoints;
+
+        Launch(Process process, ServerSocket socket) {
+            this.process = process;
+            this.socket = socket;
+        }
+
+        /**
+         * Waits for the fork to connect and report its process ID
+         *
+         * @param deadline the time in millis to give up at
+         * @return false if the fork exited or the deadline passed first
+         * @throws IOException ...
+         */
+        boolean accept(long deadline) throws IOException {
+            while (conn == null) {
+                try {
+                    conn = socket.accept();
+                } catch (SocketTimeoutException e) {
+                    if (!process.isAlive() || System.currentTimeMillis() >= deadline) return false;
+                }
+            }
+
+            in = new DataInputStream(conn.getInputStream());
+            out = new DataOutputStream(conn.getOutputStream());
+            pid = in.readLong();
+            return true;
+        }
+
+        void close() {
+            try {
+                if (conn != null) conn.close();
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void discard() {
+            close();
+            process.destroyForcibly();
+            if (safepoints != null) safepoints.delete();
+        }
+    }
+
+    /**
+     * Runs forks for a parent on another host, so the benchmarks of a run can be spread over a pool
+     * of identical machines
+     *
+     * <p>Start one on each machine with {@code java -cp <MiniMark and its dependencies>
+     * com.gmail.woodyc40.minimark.MiniMark$Agent [--bind address] [--jdk home]... [port]} and
+     * list them with {@link MiniMark#setAgents(String...)}. The agent only listens on loopback
+     * unless it's bound to another address, which needs a shared secret in the
+     * {@value #SECRET} environment variable of both the agent and the parent. A parent proves it
+     * knows the secret with an HMAC of a nonce the agent sends when it connects.</p>
+     *
+     * <p>A job is the JDK home, JVM flags, CPUs, main class and port of a fork, and a jar of the
+     * classes it needs. The agent builds the command itself, with its own JVM unless the job asks
+     * for one of the {@code --jdk} homes, so the JDKs of the parent have to be at the same paths. Flags that could run a command,
+     * load an agent or native code, read more flags from a file or write a file elsewhere are
+     * rejected. The agent runs the fork in a temporary directory with the jar as its classpath, and
+     * the fork connects straight back to the parent as a local one would. The agent streams the
+     * output and exit code of the fork to the parent, and kills the fork if the parent hangs up.
+     * Jobs run one at a time so no two forks share the machine.</p>
+     *
+     * @author caojohnny
+     */
+    public static final class Agent {
+        /** The port an agent listens on if none is given */
+        public static final int PORT = 7171;
+        /** The environment variable holding the secret shared by an agent and its parents */
+        public static final String SECRET = "MINIMARK_AGENT_SECRET";
+        /** How long the parent waits to connect to an agent, in millis */
+        private static final int CONNECT_TIMEOUT = 5000;
+        /** Followed by a chunk of the output of the fork */
+        private static final byte OUTPUT = 0;
+        /** Followed by the exit code of the fork, which ends the job */
+        private static final byte EXIT = 1;
+        /** The exit code of a job the agent refused to run */
+        static final int REJECTED = -2;
+        /** The exit code of a fork whose agent hung up without sending one */
+        static final int LOST = -1;
+        /** The length of the nonce and of its HMAC */
+        private static final int NONCE = 32;
+        /** The most flags and the largest jar of a job */
+        private static final int MAX_FLAGS = 1024;
+        private static final int MAX_BUNDLE = 1 << 30;
+        /** Flags that could run a command, load code outside the jar or write files outside the job */
+        private static final Pattern FORBIDDEN = Pattern.compile("-XX:(OnError|OnOutOfMemoryError|Flags|VMOptionsFile|" +
+                "HeapDumpPath|ErrorFile|LogFile)=.*|-XX:StartFlightRecording.*|-Xloggc:.*|-Xlog:.*|" +
+                "-agentlib:.*|-agentpath:.*|-javaagent:.*|-Xbootclasspath.*|-(cp|classpath|jar|p)|" +
+                "-Djava\\.(system\\.class\\.loader|library\\.path|ext\\.dirs)=.*|@.*");
+        /** The only long options allowed, in their one argument form */
+        private static final Pattern LONG_OPTIONS = Pattern.compile("--(add-(opens|exports|reads|modules)=.*|enable-preview)");
+        private static final Pattern MAIN = Pattern.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)*");
+        private static final Pattern CPUS = Pattern.compile("[0-9,-]*");
+        private static final SecureRandom RANDOM = new SecureRandom();
+
+        /** The JDK homes jobs may ask for besides the agent's own JVM */
+        private static final Set<String> jdks = new LinkedHashSet<>();
+        private static String secret = "";
+
+        private Agent() {
+        }
+
+        /**
+         * Accepts jobs until killed
+         *
+         * @param args {@code --bind address} to listen on another address than loopback,
+         * {@code --jdk home} for each JDK jobs may ask for besides this one, and the port to
+         * listen on, {@link #PORT} if not given
+         * @throws IOException if the port can't be bound
+         */
+        public static void main(String[] args) throws IOException {
+            InetAddress bind = InetAddress.getLoopbackAddress();
+            int port = PORT;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--bind") && i + 1 < args.length) {
+                    bind = InetAddress.getByName(args[++i]);
+                } else if (args[i].equals("--jdk") && i + 1 < args.length) {
+                    jdks.add(args[++i]);
+                } else {
+                    port = Integer.parseInt(args[i]);
+                }
+            }
+            secret = Strings.nullToEmpty(System.getenv(SECRET));
+            if (!bind.isLoopbackAddress() && secret.isEmpty()) {
+                System.out.println("Set " + SECRET + " to listen on " + bind.getHostAddress());
+                return;
+            }
+
+            try (ServerSocket server = new ServerSocket(port, 50, bind)) {
+                System.out.println("Agent listening on " + bind.getHostAddress() + ":" + server.getLocalPort() +
+                        (jdks.isEmpty() ? "" : ", also running " + String.join(", ", jdks)));
+                while (true) {
+                    Socket conn = server.accept();
+                    new Thread(() -> serve(conn), "MiniMark job " + conn.getRemoteSocketAddress()).start();
+                }
+            }
+        }
+
+        /**
+         * Runs a job for the parent on the other end of the connection
+         *
+         * @param conn the connection
+         */
+        private static void serve(Socket conn) {
+            Path directory = null;
+            try (Socket parent = conn) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(parent.getInputStream()));
+                DataOutputStream out = new DataOutputStream(parent.getOutputStream());
+                String host = parent.getInetAddress().getHostAddress();
+                byte[] nonce = new byte[NONCE];
+                RANDOM.nextBytes(nonce);
+                out.write(nonce);
+                out.flush();
+                byte[] proof = new byte[NONCE];
+                in.readFully(proof);
+                boolean trusted = MessageDigest.isEqual(proof, mac(secret, nonce));
+                out.writeBoolean(trusted);
+                out.flush();
+                if (!trusted) {
+                    System.out.println("Refused " + host + ", which doesn't know the secret");
+                    return;
+                }
+
+                String jdk;
+                try {
+                    jdk = in.readUTF();
+                } catch (EOFException e) {
+                    // Only checking that the agent is up
+                    return;
+                }
+                int count = in.readInt();
+                if (count < 0 || count > MAX_FLAGS) {
+                    reject(out, "too many flags");
+                    return;
+                }
+                List<String> flags = new ArrayList<>();
+                for (int i = 0; i < count; i++) flags.add(in.readUTF());
+                String cpus = in.readUTF();
+                String main = in.readUTF();
+                int port = in.readInt();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_BUNDLE) {
+                    reject(out, "bundle of " + length + " bytes");
+                    return;
+                }
+                byte[] bundle = new byte[length];
+                in.readFully(bundle);
+
+                String home = jdk.isEmpty() ? System.getProperty("java.home") : jdks.contains(jdk) ? jdk : null;
+                String invalid = home == null ? "JDK " + jdk + " isn't allowed" : !MAIN.matcher(main).matches() ? "main class " + main :
+                        !CPUS.matcher(cpus).matches() ? "CPUs " + cpus : port <= 0 || port > 65535 ? "port " + port : null;
+                for (String flag : flags) {
+                    if (invalid == null && !allowed(flag)) invalid = "flag " + flag;
+                }
+                if (invalid != null) {
+                    reject(out, invalid);
+                    return;
+                }
+
+                directory = Files.createTempDirectory("minimark-agent-");
+                Path jar = directory.resolve("fork.jar");
+                Files.write(jar, bundle);
+                String s = System.getProperty("os.name").contains("Windows") ? ".exe" : "";
+                List<String> command = new ArrayList<>();
+                if (!cpus.isEmpty()) Collections.addAll(command, "taskset", "-c", cpus);
+                command.add(home + File.separator + "bin" + File.separator + "java" + s);
+                command.addAll(flags);
+                command.add("-Dminimark.parent=" + host);
+                if (!cpus.isEmpty()) command.add("-Dminimark.cpus=" + cpus);
+                Collections.addAll(command, "-classpath", jar.toString(), main, String.valueOf(port));
+
+                synchronized (Agent.class) {
+                    System.out.println("Running " + main + " for " + host);
+                    Process process = new ProcessBuilder(command).directory(directory.toFile())
+                            .redirectErrorStream(true).start();
+                    try {
+                        Thread hangup = new Thread(() -> {
+                            try {
+                                while (in.read() != -1) {
+                                    // The parent sends nothing else
+                                }
+                            } catch (IOException ignored) {
+                            }
+                            process.destroyForcibly();
+                        }, "MiniMark hangup " + host);
+                        hangup.setDaemon(true);
+                        hangup.start();
+
+                        byte[] buf = new byte[8192];
+                        try (InputStream output = process.getInputStream()) {
+                            for (int n; (n = output.read(buf)) != -1; ) {
+                                out.writeByte(OUTPUT);
+                                out.writeInt(n);
+                                out.write(buf, 0, n);
+                                out.flush();
+                            }
+                        }
+                        out.writeByte(EXIT);
+                        out.writeInt(process.waitFor());
+                        out.flush();
+                    } finally {
+                        process.destroyForcibly();
+                    }
+                }
+            } catch (EOFException | SocketException e) {
+                // The parent hung up, e.g. on a timeout
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (directory != null) delete(directory);
+            }
+        }
+
+        /**
+         * Whether a job may start its fork with a flag
+         *
+         * @param flag the flag
+         * @return true if it's a JVM flag and not one of the forbidden ones
+         */
+        static boolean allowed(String flag) {
+            if (flag.startsWith("--")) return LONG_OPTIONS.matcher(flag).matches();
+            return flag.startsWith("-") && !FORBIDDEN.matcher(flag).matches();
+        }
+
+        /**
+         * Tells the parent why its job won't run, and ends it
+         *
+         * @param out the stream to the parent
+         * @param reason what was wrong with the job
+         * @throws IOException if the parent can't be reached
+         */
+        private static void reject(DataOutputStream out, String reason) throws IOException {
+            System.out.println("Rejected a job: " + reason);
+            byte[] message = ("Agent rejected the job: " + reason + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(OUTPUT);
+            out.writeInt(message.length);
+            out.write(message);
+            out.writeByte(EXIT);
+            out.writeInt(REJECTED);
+            out.flush();
+        }
+
+        /**
+         * The HMAC of the agent's nonce, which proves the parent knows the secret
+         *
+         * @param secret the shared secret, empty if there is none
+         * @param nonce the nonce
+         * @return the HMAC
+         */
+        private static byte[] mac(String secret, byte[] nonce) {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                // A key can't be empty
+                mac.init(new SecretKeySpec(("minimark:" + secret).getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+                return mac.doFinal(nonce);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Deletes the directory of a job and everything the fork left in it
+         *
+         * @param directory the directory
+         */
+        private static void delete(Path directory) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Opens a connection to an agent
+         *
+         * @param agent the host and port of the agent, or only the host for {@link #PORT}
+         * @return the connection
+         * @throws IOException if the agent can't be reached
+         */
+        private static Socket connect(String agent) throws IOException {
+            int colon = agent.lastIndexOf(':');
+            String host = colon < 0 ? agent : agent.substring(0, colon);
+            int port = colon < 0 ? PORT : Integer.parseInt(agent.substring(colon + 1));
+
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return socket;
+        }
+
+        /**
+         * Answers the nonce of an agent with the HMAC of the secret
+         *
+         * @param socket the connection to the agent
+         * @param secret the shared secret
+         * @return true if the agent accepted it
+         * @throws IOException if the agent can't be reached
+         */
+        private static boolean handshake(Socket socket, String secret) throws IOException {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] nonce = new byte[NONCE];
+            in.readFully(nonce);
+            socket.getOutputStream().write(mac(secret, nonce));
+            socket.getOutputStream().flush();
+            return in.readBoolean();
+        }
+
+        /**
+         * Checks that an agent accepts connections and the secret
+         *
+         * @param agent the host and port of the agent
+         * @param secret the shared secret
+         * @return true if it does
+         */
+        static boolean reachable(String agent, String secret) {
+            try (Socket socket = connect(agent)) {
+                return handshake(socket, secret);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Sends a fork to an agent
+         *
+         * @param agent the host and port of the agent
+         * @param secret the shared secret
+         * @param jdk the JDK home to run the fork on, empty for the agent's own JVM
+         * @param flags the JVM flags of the fork
+         * @param cpus the CPUs to pin the fork to, empty to let it float
+         * @param main the main class
+         * @param port the port of the parent the fork connects to
+         * @param bundle the jar of the classes of the fork
+         * @return the fork on the agent, which is destroyed by hanging up
+         * @throws IOException if the agent can't be reached or refuses the secret
+         */
+        static Process submit(String agent, String secret, String jdk, List<String> flags, String cpus, String main,
+                              int port, byte[] bundle) throws IOException {
+            Socket socket = connect(agent);
+            try {
+                if (!handshake(socket, secret)) throw new IOException("Agent " + agent + " refused the secret");
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeUTF(jdk);
+                out.writeInt(flags.size());
+                for (String flag : flags) out.writeUTF(flag);
+                out.writeUTF(cpus);
+                out.writeUTF(main);
+                out.writeInt(port);
+                out.writeInt(bundle.length);
+                out.write(bundle);
+                out.flush();
+                return new Remote(socket);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * The parent's view of a fork on an agent, which prints its output as it comes
+         *
+         * @author caojohnny
+         */
+        static final class Remote extends Process {
+            private final Socket socket;
+            private final CountDownLatch exited = new CountDownLatch(1);
+            private volatile int exit = LOST;
+
+            Remote(Socket socket) {
+                this.socket = socket;
+                Thread pump = new Thread(this::pump, "MiniMark remote " + socket.getRemoteSocketAddress());
+                pump.setDaemon(true);
+                pump.start();
+            }
+
+            private void pump() {
+                try {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    for (byte tag = in.readByte(); tag == OUTPUT; tag = in.readByte()) {
+                        byte[] output = new byte[in.readInt()];
+                        in.readFully(output);
+                        System.out.write(output, 0, output.length);
+                        System.out.flush();
+                    }
+                    exit = in.readInt();
+                } catch (IOException e) {
+                    // Hung up, the fork is gone
+                } finally {
+                    exited.countDown();
+                }
+            }
+
+            @Override
+            public OutputStream getOutputStream() {
+                return new ByteArrayOutputStream();
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+            @Override
+            public InputStream getErrorStream() {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+
+            @Override
+            public int waitFor() throws InterruptedException {
+                exited.await();
+                return exit;
+            }
+
+            @Override
+            public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+                return exited.await(timeout, unit);
+            }
+
+            @Override
+            public int exitValue() {
+                if (exited.getCount() > 0) throw new IllegalThreadStateException("Fork is still running");
+                return exit;
+            }
+
+            @Override
+            public boolean isAlive() {
+                return exited.getCount() > 0;
+            }
+
+            @Override
+            public void destroy() {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * The forked JVM's end of the control channel, used by the synthetic invokers
+     *
+     * <p>Called internally. Only the JDK and the copied dependencies are on the fork's classpath,
+     * so nothing in here may touch the other libraries.</p>
+     *
+     * @author caojohnny
+     */
+    public static final class Fork {
+        /** The shortest batch of measurements reported, in nanos */
+        private static final long BATCH = TimeUnit.MILLISECONDS.toNanos(10);
+        /** How long each benchmark warms up before measuring, in millis */
+        private static final long SETTLE = 2000L;
+        /** The argument that makes main load the classes following it and exit */
+        static final String LOAD = "-load";
+        /** The length of the sequence of a mix */
+        private static final int MIX = 1024;
+        /** The most calls of a mix timed on their own */
+        public static final long TIMED = 1_000_000L;
+        /** How long a thread group is measured without a measurement time, in nanos */
+        static final long GROUP_TIME = TimeUnit.SECONDS.toNanos(1);
+        /** How long the threads of a group have to stop after the measurement, in millis */
+        private static final long GROUP_STOP = 10_000L;
+        /** The shortest iteration reported to the parent while measuring, in nanos */
+        private static final long ITERATION = TimeUnit.MILLISECONDS.toNanos(100);
+        /** How often the threads of a group are checked for the lock they're blocked on, in nanos */
+        private static final long SAMPLE = TimeUnit.MILLISECONDS.toNanos(10);
+        /** How many of the most contended locks are reported */
+        private static final int MONITORS = 3;
+        /** Sent before the result, which ends the events of the fork */
+        static final byte RESULT = 0;
+        /** Sent after each round of warmup with the round and the time of an op in it */
+        static final byte WARMUP = 1;
+        /** Sent after each iteration of the measurement with its ops and time */
+        static final byte MEASURED = 2;
+        /** Sent after each window of a soak with its ops, time, memory and compilations */
+        static final byte SOAK = 3;
+        /** Sent after each rate of an open loop with the calls, time and latency percentiles */
+        static final byte OPEN = 4;
+        /** The rates of an open loop without rates, as fractions of its capacity */
+        static final double[] FRACTIONS = {0.1D, 0.25D, 0.5D, 0.75D, 0.9D, 1D, 1.1D};
+        /** How long each rate of an open loop runs without a measurement time, in nanos */
+        static final long RATE_TIME = TimeUnit.SECONDS.toNanos(1);
+        /** The same arrivals in every fork */
+        public static final long SEED = 0xFFD5L;
+        /** The latency percentiles reported for each rate, the max follows them */
+        private static final double[] PERCENTILES = {0.5D, 0.9D, 0.99D, 0.999D};
+        /** The buckets of each power of two of the latency histogram, 64 keeps a bucket within 1.6% */
+        private static final int SUB_BUCKETS = 64;
+
+        /** Whether the threads of a group are warming up (0), measuring (1) or done (2) */
+        private static volatile int phase;
+
+        /** The connection to the parent */
+        private static Socket channel;
+        /** The stream to the parent, which events are written to */
+        private static DataOutputStream events;
+        /** The CPUs the fork is pinned to, null if it isn't */
+        private static List<Integer> pinned;
+        private static int rounds;
+        /** When the last round of warmup was reported, in nanos */
+        private static long warmupReported;
+        /** The time of the last round of warmup if it wasn't reported, -1 if it was */
+        private static long warmupPending = -1L;
+        private static long iterationStart;
+        private static long iterationOps;
+        private static long iterationTime;
+
+        /** The names of the watched roles, or the benchmark for a single thread, null if not watching */
+        private static String[] watching;
+        /** The IDs of the threads of each watched role */
+        private static long[][] watched;
+        /** The blocked count, blocked millis, waited count and waited millis of each role at the start */
+        private static long[][] blockedAtStart;
+        /** The blocked count, blocked millis, waited count, waited millis and ops of each role */
+        private static final Map<String, long[]> contention = new LinkedHashMap<>();
+        /** How many samples found a thread blocked or waiting on each lock */
+        private static final Map<String, Integer> monitors = new HashMap<>();
+        private static long samples;
+        private static long measuredOps;
+        /** The uptime in millis at the start and end of the measurement window, -1 if not measured */
+        private static long windowStart = -1L;
+        private static long windowEnd = -1L;
+        /** The NMT summary diff of the measurement window, null if not tracking */
+        private static String memory;
+        /** The time in millis the warmup of the benchmark ends at */
+        private static long settled;
+
+        /** The recording of the measurement window, null if not recording */
+        private static Flight flight;
+        private static long batchStart;
+        private static long batchOps;
+        private static long batchTime;
+
+        /** The length of each window of a soak in nanos, 0 if not soaking */
+        private static long soakWindow;
+        private static long soakStart;
+        private static long soakOps;
+        private static long soakTime;
+        /** The performance counters of this JVM, null if they can't be mapped */
+        private static ByteBuffer counters;
+        /** Where the total compiles and invalidations are in the counters, -1 if not found */
+        private static int compiles = -1;
+        private static int invalidations = -1;
+        /** The calls of the current rate of an open loop in each latency bucket */
+        private static final long[] latencies = new long[64 * SUB_BUCKETS];
+        private static long maxLatency;
+
+        /** The compiles, invalidations and compile time in millis at the start of the window */
+        private static long lastCompiles;
+        private static long lastInvalidations;
+        private static long lastCompileTime;
+
+        private Fork() {
+        }
+
+        /**
+         * Runs a warm fork, which settles and then waits for the parent to send it a benchmark
+         *
+         * <p>With {@link #LOAD}, only loads the named classes so the parent can list them for class
+         * data sharing.</p>
+         *
+         * @param args the port of the parent, or {@link #LOAD} and the classes
+         * @throws Exception if the benchmark can't be run
+         */
+        public static void main(String[] args) throws Exception {
+            if (args[0].equals(LOAD)) {
+                for (int i = 1; i < args.length; i++) {
+                    Class.forName(args[i], false, Fork.class.getClassLoader());
+                }
+                return;
+            }
+
+            DataOutputStream stream = connect(args);
+            settle();
+            stream.writeBoolean(true);
+            stream.flush();
+
+            DataInputStream in = new DataInputStream(channel.getInputStream());
+            String invoker;
+            try {
+                invoker = in.readUTF();
+            } catch (EOFException e) {
+                // Wasn't needed
+                return;
+            }
+            String jfr = in.readUTF();
+            if (!jfr.isEmpty()) System.setProperty("minimark.jfr", jfr);
+
+            try {
+                Class.forName(invoker).getMethod("run", DataOutputStream.class).invoke(null, stream);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw (Exception) e.getCause();
+            }
+        }
+
+        /**
+         * The phase of the thread group, read by the loops of each role
+         *
+         * @return 0 while warming up, 1 while measuring and 2 after
+         */
+        public static int phase() {
+            return phase;
+        }
+
+        /**
+         * Runs the roles of a thread group on their threads at the same time, on the same invoker
+         *
+         * <p>The threads warm up for as long as they are measured.</p>
+         *
+         * <p>While measuring, the threads are sampled for the locks they are blocked on. In a pinned
+         * fork, the threads are spread over all of its CPUs.</p>
+         *
+         * @param invoker the invoker, which has loop(int, long[])
+         * @param benchmark the name of the benchmark
+         * @param roles the names of the roles
+         * @param threads the threads of each role
+         * @param time the time to measure in nanos
+         * @return the ops and time in nanos of each thread, by role
+         * @throws Exception if a role fails or doesn't stop
+         */
+        public static long[][][] group(Object invoker, String benchmark, String[] roles, int[] threads, long time) throws Exception {
+            Method loop = invoker.getClass().getMethod("loop", int.class, long[].class);
+            Throwable[] failure = new Throwable[1];
+            long[][][] measured = new long[threads.length][][];
+            List<Thread> started = new ArrayList<>();
+            long[][] ids = new long[threads.length][];
+
+            phase = 0;
+            for (int k = 0; k < threads.length; k++) {
+                measured[k] = new long[threads[k]][2];
+                ids[k] = new long[threads[k]];
+                for (int i = 0; i < threads[k]; i++) {
+                    int role = k;
+                    int index = started.size();
+                    long[] thread = measured[k][i];
+                    Thread t = new Thread(() -> {
+                        spread(index);
+                        try {
+                            loop.invoke(invoker, role, thread);
+                        } catch (ReflectiveOperationException e) {
+                            synchronized (failure) {
+                                failure[0] = e.getCause() == null ? e : e.getCause();
+                            }
+                        }
+                    }, "role-" + k + "-" + i);
+                    t.setDaemon(true);
+                    t.start();
+                    started.add(t);
+                    ids[k][i] = t.getId();
+                }
+            }
+
+            TimeUnit.NANOSECONDS.sleep(time);
+            watch(roles, ids);
+            begin(benchmark);
+            phase = 1;
+            long deadline = System.nanoTime() + time;
+            for (long left = time; left > 0; left = deadline - System.nanoTime()) {
+                TimeUnit.NANOSECONDS.sleep(Math.min(left, SAMPLE));
+                sample();
+            }
+            phase = 2;
+            end();
+
+            for (Thread t : started) {
+                t.join(GROUP_STOP);
+                if (t.isAlive()) throw new IllegalStateException(t.getName() + " didn't stop, does its method block?");
+            }
+            for (int k = 0; k < roles.length; k++) {
+                long[] role = contention.get(roles[k]);
+                if (role == null) continue;
+                for (long[] thread : measured[k]) role[4] += thread[0];
+            }
+            synchronized (failure) {
+                if (failure[0] instanceof Exception) throw (Exception) failure[0];
+                if (failure[0] != null) throw new IllegalStateException(failure[0]);
+            }
+            return measured;
+        }
+
+        /**
+         * Reports the result of a thread group to the parent, the total of every thread and the
+         * latency of each role
+         *
+         * @param stream the stream to the parent
+         * @param measured the ops and time of each thread, by role
+         * @param roles the names of the roles
+         * @param nanoAcc the resolution of the timer
+         * @throws IOException if the parent can't be reached
+         */
+        public static void report(DataOutputStream stream, long[][][] measured, String[] roles, long nanoAcc) throws IOException {
+            long ops = 0;
+            long time = 0;
+            int threads = 0;
+            double[] latency = new double[roles.length];
+            for (int k = 0; k < roles.length; k++) {
+                long roleOps = 0;
+                long roleTime = 0;
+                for (long[] thread : measured[k]) {
+                    roleOps += thread[0];
+                    roleTime += thread[1];
+                    threads++;
+                }
+                latency[k] = roleOps == 0 ? 0D : (double) roleTime / roleOps;
+                ops += roleOps;
+                time += roleTime;
+            }
+
+            result(stream);
+            stream.writeDouble(time);
+            stream.writeLong(ops);
+            // Every thread timed itself once
+            stream.writeLong(threads);
+            stream.writeLong(nanoAcc);
+            stream.writeInt(roles.length);
+            for (int k = 0; k < roles.length; k++) {
+                stream.writeUTF(roles[k]);
+                stream.writeDouble(latency[k]);
+            }
+            stream.writeInt(0);
+            stream.writeInt(-1);
+            contention(stream);
+            window(stream);
+            memory(stream);
+        }
+
+        /**
+         * Loads the classes used to check on the measurement, loading them while measuring could
+         * deoptimize the measured code
+         *
+         * @param invoker the name of the invoker
+         */
+        public static void preload(String invoker) {
+            tier(invoker);
+            blocking(new long[] {Thread.currentThread().getId()});
+        }
+
+        /**
+         * Starts watching threads for contention, turning on contention monitoring if the JVM
+         * supports it
+         *
+         * @param roles the names of the roles
+         * @param ids the IDs of the threads of each role
+         */
+        private static void watch(String[] roles, long[][] ids) {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!threads.isThreadContentionMonitoringSupported()) return;
+            threads.setThreadContentionMonitoringEnabled(true);
+
+            watching = roles;
+            watched = ids;
+            blockedAtStart = new long[ids.length][];
+            for (int k = 0; k < ids.length; k++) blockedAtStart[k] = blocking(ids[k]);
+        }
+
+        /**
+         * Stops watching threads, keeping how much each role was blocked and waited while watched
+         */
+        private static void unwatch() {
+            if (watching == null) return;
+            for (int k = 0; k < watching.length; k++) {
+                long[] now = blocking(watched[k]);
+                long[] role = new long[5];
+                for (int i = 0; i < 4; i++) role[i] = now[i] - blockedAtStart[k][i];
+                contention.put(watching[k], role);
+            }
+            watching = null;
+        }
+
+        /**
+         * The total blocked count, blocked millis, waited count and waited millis of the threads
+         *
+         * @param ids the IDs of the threads
+         * @return the totals, of the threads that are still alive
+         */
+        private static long[] blocking(long[] ids) {
+            long[] total = new long[4];
+            for (ThreadInfo info : ManagementFactory.getThreadMXBean().getThreadInfo(ids)) {
+                if (info == null) continue;
+                total[0] += info.getBlockedCount();
+                total[1] += Math.max(0L, info.getBlockedTime());
+                total[2] += info.getWaitedCount();
+                total[3] += Math.max(0L, info.getWaitedTime());
+            }
+            return total;
+        }
+
+        /**
+         * Counts the locks the watched threads are blocked or waiting on right now
+         */
+        private static void sample() {
+            if (watching == null) return;
+            for (long[] ids : watched) {
+                for (ThreadInfo info : ManagementFactory.getThreadMXBean().getThreadInfo(ids)) {
+                    if (info == null) continue;
+                    samples++;
+                    // Also set for a thread parked on a java.util.concurrent lock
+                    if (info.getLockName() != null && info.getThreadState() != Thread.State.RUNNABLE) {
+                        monitors.merge(info.getLockName(), 1, Integer::sum);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reports the contention of the watched threads to the parent, and the locks they were
+         * found blocked on most
+         *
+         * @param stream the stream to the parent
+         * @throws IOException if the parent can't be reached
+         */
+        public static void contention(DataOutputStream stream) throws IOException {
+            stream.writeInt(contention.size());
+            for (Map.Entry<String, long[]> role : contention.entrySet()) {
+                stream.writeUTF(role.getKey());
+                for (long value : role.getValue()) stream.writeLong(value);
+            }
+
+            List<Map.Entry<String, Integer>> locks = new ArrayList<>(monitors.entrySet());
+            locks.sort((a, b) -> b.getValue() - a.getValue());
+            locks = locks.subList(0, Math.min(MONITORS, locks.size()));
+            stream.writeInt(locks.size());
+            for (Map.Entry<String, Integer> lock : locks) {
+                stream.writeUTF(lock.getKey());
+                stream.writeDouble((double) lock.getValue() / samples);
+            }
+        }
+
+        /**
+         * Reports the measurement window to the parent, to find the safepoints in it
+         *
+         * @param stream the stream to the parent
+         * @throws IOException if the parent can't be reached
+         */
+        public static void window(DataOutputStream stream) throws IOException {
+            stream.writeLong(windowStart);
+            stream.writeLong(windowEnd);
+        }
+
+        /**
+         * Reports the NMT summary diff of the measurement window to the parent, empty if not tracking
+         *
+         * @param stream the stream to the parent
+         * @throws IOException if the parent can't be reached
+         */
+        public static void memory(DataOutputStream stream) throws IOException {
+            stream.writeUTF(memory == null ? "" : memory);
+        }
+
+        /**
+         * Runs the VM.native_memory diagnostic command on this JVM
+         *
+         * @param command the subcommand, e.g. baseline
+         * @return the output, or why it couldn't run
+         */
+        private static String nativeMemory(String command) {
+            try {
+                return (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                        new ObjectName("com.sun.management:type=DiagnosticCommand"), "vmNativeMemory",
+                        new Object[] {new String[] {command}}, new String[] {String[].class.getName()});
+            } catch (JMException | RuntimeException e) {
+                return e.toString();
+            }
+        }
+
+        /**
+         * The tier measure() of the invoker is compiled at, from the Compiler.codelist diagnostic
+         * command which is only available on Java 9 and later
+         *
+         * @param invoker the name of the invoker
+         * @return the highest tier of the code in use, 0 if interpreted and -1 if unknown
+         */
+        public static int tier(String invoker) {
+            String list;
+            try {
+                list = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                        new ObjectName("com.sun.management:type=DiagnosticCommand"), "compilerCodelist",
+                        new Object[] {new String[0]}, new String[] {String[].class.getName()});
+            } catch (JMException | RuntimeException e) {
+                return -1;
+            }
+
+            int tier = 0;
+            // id tier state method [addresses], state 0 is in use
+            for (String line : list.split("\n")) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length < 4 || !parts[3].startsWith(invoker + ".measure(") || !parts[2].equals("0")) continue;
+                try {
+                    tier = Math.max(tier, Integer.parseInt(parts[1]));
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+            return tier;
+        }
+
+        /**
+         * Initializes the harness classes every unit uses, so that a single shot only counts what the
+         * unit itself loads and initializes
+         *
+         * @throws ClassNotFoundException never
+         */
+        public static void prime() throws ClassNotFoundException {
+            for (Class<?> cls : Arrays.asList(MiniMark.class, Unit.class, StatefulOp.class)) {
+                Class.forName(cls.getName(), true, cls.getClassLoader());
+            }
+        }
+
+        /**
+         * Reports the calls of a single shot fork to the parent, the first call as the result
+         *
+         * @param stream the stream to the parent
+         * @param times the time in nanos of creating the unit and of each call after
+         * @param loads the classes loaded by each
+         * @param nanoAcc the resolution of the timer
+         * @throws IOException if the parent can't be reached
+         */
+        public static void shots(DataOutputStream stream, long[] times, long[] loads, long nanoAcc) throws IOException {
+            result(stream);
+            stream.writeDouble(times[1]);
+            stream.writeLong(1L);
+            stream.writeLong(1L);
+            stream.writeLong(nanoAcc);
+            stream.writeInt(0);
+            stream.writeInt(times.length);
+            for (int i = 0; i < times.length; i++) {
+                stream.writeLong(times[i]);
+                stream.writeLong(loads[i]);
+            }
+            stream.writeInt(-1);
+            contention(stream);
+            window(stream);
+            memory(stream);
+        }
+
+        /**
+         * Builds the sequence a mix calls its methods in, the same in every fork
+         *
+         * @param weights the weight of each method
+         * @return the index of the method for each op, the length is a power of two
+         */
+        public static byte[] sequence(int[] weights) {
+            long total = 0;
+            for (int weight : weights) total += weight;
+
+            byte[] sequence = new byte[MIX];
+            int k = 0;
+            long cumulative = weights[0];
+            for (int i = 0; i < sequence.length; i++) {
+                // Each method gets the slots that fall in its share of the weights
+                while ((long) i * total >= cumulative * sequence.length) cumulative += weights[++k];
+                sequence[i] = (byte) k;
+            }
+
+            Random random = new Random(MIX);
+            for (int i = sequence.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                byte swap = sequence[i];
+                sequence[i] = sequence[j];
+                sequence[j] = swap;
+            }
+            return sequence;
+        }
+
+        /**
+         * The cost of reading the timer twice, which is part of every call timed on its own
+         *
+         * @return the cost in nanos
+         */
+        public static double timerCost() {
+            long acc = 0;
+            for (int i = 0; i < TIMED; i++) {
+                long start = System.nanoTime();
+                acc += System.nanoTime() - start;
+            }
+            return (double) acc / TIMED;
+        }
+
+        /**
+         * The latency of a method of a mix without the timer
+         *
+         * @param time the total time of the calls
+         * @param count the calls
+         * @param cost the cost of the timer
+         * @return the latency in nanos, 0 if it was never called
+         */
+        public static double latency(long time, long count, double cost) {
+            return count == 0 ? 0D : Math.max(0D, (double) time / count - cost);
+        }
+
+        /**
+         * Lets the VM transition into its ready state, warmups may not be enough to do it completely
+         *
+         * <p>Only done once per JVM, a warm fork does it while it waits. The benchmark itself is
+         * warmed up after {@link #warmUp()}, until {@link #settling()} is over.</p>
+         */
+        public static void settle() {
+            int done = 0;
+            // Hashcode is a good, fast, psn number
+            for (int i = 0; i < 5000000; i++) {
+                done += new Object().hashCode();
+            }
+            // hi jit
+            if (done / 2 == 6) {
+                System.out.println();
+            }
+        }
+
+        /**
+         * Starts the warmup of the benchmark, which runs for the settling time in every fork, warm
+         * or cold, so every benchmark reaches the same tier before it is measured
+         */
+        public static void warmUp() {
+            settled = System.currentTimeMillis() + SETTLE;
+            // So the first round is reported
+            warmupReported = System.nanoTime() - ITERATION;
+        }
+
+        /**
+         * Whether the benchmark is still warming up
+         *
+         * @return true until the settling time since {@link #warmUp()} has passed
+         */
+        public static boolean settling() {
+            return System.currentTimeMillis() < settled;
+        }
+
+        /**
+         * Marks the start of the measurement window
+         *
+         * @param benchmark the name of the benchmark
+         */
+        public static void begin(String benchmark) {
+            String jfr = System.getProperty("minimark.jfr");
+            if (jfr != null) {
+                try {
+                    flight = Flight.start(benchmark, Paths.get(jfr));
+                } catch (IOException | ParseException | RuntimeException | LinkageError e) {
+                    System.out.println("Cannot start flight recording: " + e);
+                }
+            }
+            if (Boolean.getBoolean("minimark.nmt")) nativeMemory("baseline");
+            windowStart = ManagementFactory.getRuntimeMXBean().getUptime();
+            // A group watches its own threads
+            if (watching == null) watch(new String[] {benchmark}, new long[][] {{Thread.currentThread().getId()}});
+            batchStart = System.nanoTime();
+            iterationStart = batchStart;
+            soakWindow = Long.getLong("minimark.soak", 0L);
+            if (soakWindow > 0) {
+                counters = counters();
+                if (counters != null) {
+                    compiles = counter("sun.ci.totalCompiles");
+                    invalidations = counter("sun.ci.totalInvalidates");
+                }
+                lastCompiles = read(compiles);
+                lastInvalidations = read(invalidations);
+                lastCompileTime = compileTime();
+                soakStart = batchStart;
+            }
+        }
+
+        /**
+         * Called after each timed run of the measurement loop, groups them into batches for the
+         * recording and into iterations for the parent
+         *
+         * @param ops the operations in the run
+         * @param time the measured time of the run
+         * @throws IOException if the parent can't be reached
+         */
+        public static void batch(long ops, long time) throws IOException {
+            long now = System.nanoTime();
+            measuredOps += ops;
+            iterationOps += ops;
+            iterationTime += time;
+            if (now - iterationStart >= ITERATION) {
+                iteration(now);
+            }
+            if (soakWindow > 0) {
+                soakOps += ops;
+                soakTime += time;
+                // A short last window would skew the trends, so it isn't reported
+                if (now - soakStart >= soakWindow) soak(now);
+            }
+            if (flight == null) return;
+
+            batchOps += ops;
+            batchTime += time;
+            if (now - batchStart >= BATCH) {
+                flush();
+            }
+        }
+
+        /**
+         * Marks the end of the measurement window
+         *
+         * @throws IOException if the recording can't be written or the parent can't be reached
+         */
+        public static void end() throws IOException {
+            windowEnd = ManagementFactory.getRuntimeMXBean().getUptime();
+            if (Boolean.getBoolean("minimark.nmt")) memory = nativeMemory("summary.diff");
+            // The last iteration is reported even if it's short
+            if (iterationOps > 0) iteration(System.nanoTime());
+            boolean single = watching != null && watching.length == 1 && watched[0].length == 1;
+            unwatch();
+            // A group adds the ops of each role once its threads have stopped
+            if (single) contention.values().iterator().next()[4] = measuredOps;
+            if (flight == null) return;
+
+            if (batchOps > 0) flush();
+            flight.stop();
+            flight = null;
+        }
+
+        private static void iteration(long now) throws IOException {
+            events.writeByte(MEASURED);
+            events.writeLong(iterationOps);
+            events.writeLong(iterationTime);
+            iterationOps = 0;
+            iterationTime = 0;
+            iterationStart = now;
+        }
+
+        private static void soak(long now) throws IOException {
+            long heap = 0L;
+            long code = 0L;
+            long codeMax = 0L;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    // What was left after the last collection of the pool, not the garbage since
+                    MemoryUsage collected = pool.getCollectionUsage();
+                    if (collected != null) heap += collected.getUsed();
+                } else if (pool.getName().contains("Code")) {
+                    // One Code Cache on Java 8, a CodeHeap per kind of code after
+                    MemoryUsage usage = pool.getUsage();
+                    code += usage.getUsed();
+                    codeMax += Math.max(0L, usage.getMax());
+                }
+            }
+            long compiled = read(compiles);
+            long invalidated = read(invalidations);
+            long compileTime = compileTime();
+
+            events.writeByte(SOAK);
+            events.writeLong(soakOps);
+            events.writeLong(soakTime);
+            events.writeLong(heap);
+            events.writeLong(code);
+            events.writeLong(codeMax);
+            events.writeLong(compiled < 0 ? -1L : compiled - lastCompiles);
+            events.writeLong(invalidated < 0 ? -1L : invalidated - lastInvalidations);
+            events.writeLong(compileTime < 0 ? -1L : compileTime - lastCompileTime);
+            lastCompiles = compiled;
+            lastInvalidations = invalidated;
+            lastCompileTime = compileTime;
+            soakOps = 0;
+            soakTime = 0;
+            soakStart = now;
+        }
+
+        /**
+         * Records the latency of a call of an open loop
+         *
+         * @param latency the time from the scheduled start of the call to its end in nanos
+         */
+        public static void arrived(long latency) {
+            latencies[bucket(latency)]++;
+            if (latency > maxLatency) maxLatency = latency;
+        }
+
+        /**
+         * Reports a rate of an open loop to the parent, and clears the latencies for the next one
+         *
+         * @param rate the target rate in calls per second
+         * @param calls the calls made
+         * @param elapsed the time they took in nanos
+         * @throws IOException if the parent can't be reached
+         */
+        public static void rate(double rate, long calls, long elapsed) throws IOException {
+            events.writeByte(OPEN);
+            events.writeDouble(rate);
+            events.writeLong(calls);
+            events.writeLong(elapsed);
+            for (double percentile : PERCENTILES) {
+                long rank = (long) Math.ceil(percentile * calls);
+                long seen = 0;
+                int bucket = 0;
+                while (bucket < latencies.length - 1 && (seen += latencies[bucket]) < rank) bucket++;
+                // The highest latency of the bucket, never more than the max
+                events.writeLong(Math.min(maxLatency, highest(bucket)));
+            }
+            events.writeLong(maxLatency);
+            clear();
+        }
+
+        /**
+         * Forgets the latencies recorded so far
+         */
+        public static void clear() {
+            Arrays.fill(latencies, 0L);
+            maxLatency = 0;
+        }
+
+        /**
+         * The bucket of a latency, one per nano up to 64 and then 64 to each power of two
+         */
+        private static int bucket(long latency) {
+            if (latency < SUB_BUCKETS) return (int) Math.max(0L, latency);
+            int exponent = 63 - Long.numberOfLeadingZeros(latency);
+            return (exponent - 5) * SUB_BUCKETS + (int) (latency >>> (exponent - 6)) - SUB_BUCKETS;
+        }
+
+        /**
+         * The highest latency that falls in a bucket
+         */
+        private static long highest(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + 5;
+            return ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << (exponent - 6)) - 1;
+        }
+
+        /**
+         * Maps the hsperfdata file of this JVM, which the JIT keeps its counters in
+         *
+         * @return the counters in their byte order, or null without -XX:+UsePerfData or if the file
+         * can't be read
+         */
+        private static ByteBuffer counters() {
+            Path file = Paths.get(System.getProperty("java.io.tmpdir"), "hsperfdata_" + System.getProperty("user.name"),
+                    String.valueOf(pid()));
+            // The mapping stays valid once the channel is closed
+            try (FileChannel channel = FileChannel.open(file)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+                // The magic is always big endian, the byte after it tells the order of the rest
+                if (buffer.getInt(0) != 0xCAFEC0C0) return null;
+                return buffer.order(buffer.get(4) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Finds a long counter by walking the entries after the prologue of the counters
+         *
+         * @param name the name of the counter
+         * @return the position of its value, -1 if there is no such counter
+         */
+        private static int counter(String name) {
+            byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+            int entry = counters.getInt(24);
+            for (int i = counters.getInt(28); i > 0 && entry > 0 && entry < counters.limit(); i--) {
+                int length = counters.getInt(entry);
+                int nameStart = entry + counters.getInt(entry + 4);
+                // A scalar long, not a vector
+                if (counters.getInt(entry + 8) == 0 && counters.get(entry + 12) == 'J') {
+                    boolean matches = counters.get(nameStart + bytes.length) == 0;
+                    for (int j = 0; matches && j < bytes.length; j++) matches = counters.get(nameStart + j) == bytes[j];
+                    if (matches) return entry + counters.getInt(entry + 16);
+                }
+                if (length <= 0) break;
+                entry += length;
+            }
+            return -1;
+        }
+
+        private static long read(int counter) {
+            return counter < 0 ? -1L : counters.getLong(counter);
+        }
+
+        private static long compileTime() {
+            CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+            return compiler != null && compiler.isCompilationTimeMonitoringSupported() ?
+                    compiler.getTotalCompilationTime() : -1L;
+        }
+
+        /**
+         * Reports a round of warmup to the parent, at most one every {@link #ITERATION} so a fast op
+         * doesn't flood the parent with events, the rest are held back
+         *
+         * @param time the average time of an op in the round in nanos
+         * @throws IOException if the parent can't be reached
+         */
+        public static void warmed(long time) throws IOException {
+            rounds++;
+            long now = System.nanoTime();
+            if (now - warmupReported < ITERATION) {
+                warmupPending = time;
+                return;
+            }
+            warmup(time, now);
+        }
+
+        /**
+         * Ends the warmup, reporting its last round if it was held back
+         *
+         * @throws IOException if the parent can't be reached
+         */
+        public static void warmedUp() throws IOException {
+            if (warmupPending >= 0) warmup(warmupPending, System.nanoTime());
+        }
+
+        private static void warmup(long time, long now) throws IOException {
+            events.writeByte(WARMUP);
+            events.writeInt(rounds);
+            events.writeLong(time);
+            warmupPending = -1L;
+            warmupReported = now;
+        }
+
+        /**
+         * Ends the events of the fork, the result is written next
+         *
+         * @param stream the stream to the parent
+         * @throws IOException if the parent can't be reached
+         */
+        public static void result(DataOutputStream stream) throws IOException {
+            stream.writeByte(RESULT);
+        }
+
+        /**
+         * Reports that the benchmark threw instead of a result
+         *
+         * @param stream the stream to the parent
+         * @throws IOException if the parent can't be reached
+         */
+        public static void failed(DataOutputStream stream) throws IOException {
+            result(stream);
+            stream.writeDouble(-1D);
+        }
+
+        private static void flush() {
+            flight.batch(batchOps, batchTime);
+            batchOps = 0;
+            batchTime = 0;
+            batchStart = System.nanoTime();
+        }
+
+        /**
+         * Connects to the parent on the port passed as the first argument and reports the process
+         * ID, so the parent can dump and kill the fork if it hangs
+         *
+         * @param args the arguments passed to the fork
+         * @return the stream used to report back to the parent
+         * @throws IOException if the parent can't be reached
+         */
+        public static DataOutputStream connect(String[] args) throws IOException {
+            // Set by an agent running the fork for a parent on another host
+            channel = new Socket(System.getProperty("minimark.parent", "localhost"), Integer.parseInt(args[0]));
+            DataOutputStream stream = new DataOutputStream(channel.getOutputStream());
+            stream.writeLong(pid());
+            stream.flush();
+            events = stream;
+
+            String cpus = System.getProperty("minimark.cpus");
+            if (cpus != null) pin(cpus);
+            return stream;
+        }
+
+        /**
+         * Moves the calling thread onto the first of the CPUs and every other thread of the JVM onto
+         * the rest, so the JIT and GC threads stay off of the benchmark's core
+         *
+         * <p>Threads started later inherit the affinity of the thread that starts them, except for
+         * the threads of a thread group, which {@link #spread(int)} over all of the CPUs.</p>
+         *
+         * @param cpus the CPUs in taskset list format
+         */
+        static void pin(String cpus) {
+            List<Integer> list = cpuList(cpus);
+            if (list.size() < 2) return;
+
+            try {
+                String self = self();
+                StringBuilder rest = new StringBuilder();
+                for (int i = 1; i < list.size(); i++) {
+                    rest.append(i == 1 ? "" : ",").append(list.get(i));
+                }
+
+                int moved = 0;
+                try (DirectoryStream<Path> tasks = Files.newDirectoryStream(Paths.get("/proc/self/task"))) {
+                    for (Path task : tasks) {
+                        String tid = task.getFileName().toString();
+                        if (tid.equals(self)) continue;
+                        if (taskset(rest.toString(), tid)) moved++;
+                    }
+                }
+                taskset(String.valueOf(list.get(0)), self);
+                pinned = list;
+                System.out.println("Pinned benchmark thread to CPU " + list.get(0) + ", " + moved +
+                        " other threads to " + rest);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Cannot pin threads: " + e);
+            }
+        }
+
+        /**
+         * Moves the calling thread of a thread group onto one of the pinned CPUs, so the roles
+         * don't all share the single CPU of the thread that started them
+         *
+         * <p>The threads go round the CPUs in order from the second, since the first is kept for the
+         * benchmark thread, sharing them only once there are more threads than CPUs.</p>
+         *
+         * @param thread the index of the thread in its group
+         */
+        private static void spread(int thread) {
+            List<Integer> cpus = pinned;
+            if (cpus == null) return;
+
+            try {
+                int cpu = cpus.size() > 1 ? 1 + thread % (cpus.size() - 1) : 0;
+                taskset(String.valueOf(cpus.get(cpu)), self());
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Cannot pin " + Thread.currentThread().getName() + ": " + e);
+            }
+        }
+
+        /**
+         * The ID of the calling thread in /proc
+         *
+         * @return the thread ID
+         * @throws IOException if there's no /proc
+         */
+        private static String self() throws IOException {
+            // thread-self links to <pid>/task/<tid>
+            return Files.readSymbolicLink(Paths.get("/proc/thread-self")).getFileName().toString();
+        }
+
+        private static boolean taskset(String cpus, String tid) throws IOException {
+            Process process = new ProcessBuilder("taskset", "-p", "-c", cpus, tid).redirectErrorStream(true).start();
+            try (InputStream in = process.getInputStream()) {
+                while (in.read() != -1) ;
+                return process.waitFor() == 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * Expands a taskset CPU list such as "0-2,5" into [0, 1, 2, 5]
+         *
+         * @param cpus the list
+         * @return the CPUs, in order
+         */
+        static List<Integer> cpuList(String cpus) {
+            List<Integer> list = new ArrayList<>();
+            for (String part : cpus.split(",")) {
+                part = part.trim();
+                if (part.isEmpty()) continue;
+                int dash = part.indexOf('-');
+                if (dash < 0) {
+                    list.add(Integer.parseInt(part));
+                } else {
+                    int to = Integer.parseInt(part.substring(dash + 1));
+                    for (int cpu = Integer.parseInt(part.substring(0, dash)); cpu <= to; cpu++) list.add(cpu);
+                }
+            }
+            return list;
+        }
+
+        /**
+         * The process ID of this JVM, the runtime name is pid@host on every JVM that matters
+         *
+         * @return the process ID, or -1 if it can't be determined
+         */
+        public static long pid() {
+            String vm = ManagementFactory.getRuntimeMXBean().getName();
+            try {
+                return Long.parseLong(vm.substring(0, vm.indexOf('@')));
+            } catch (RuntimeException e) {
+                return -1L;
+            }
+        }
+    }
+
+    /**
+     * Generates the files of {@link Fixture}s and maps them into the forks
+     *
+     * <p>The elements are little endian, and only depend on the type, length, seed and bound, so a
+     * file can be shared by every fork and kept between runs.</p>
+     *
+     * @author caojohnny
+     */
+    public static final class Fixtures {
+        /** The types a fixture field can have */
+        private static final List<Class<?>> TYPES = Arrays.asList(byte[].class, int[].class, long[].class,
+                double[].class, ByteBuffer.class, IntBuffer.class, LongBuffer.class, DoubleBuffer.class);
+        /** The size of the buffer the elements are generated into before they are written */
+        private static final int CHUNK = 1 << 20;
+        /** The fixtures loaded ahead of the construction of the invoker, by type, length, seed and bound */
+        private static final Map<String, Deque<Object>> prepared = new HashMap<>();
+
+        private Fixtures() {
+        }
+
+        /**
+         * Checks that a field can be a fixture
+         *
+         * @param field the field
+         * @throws IllegalStateException if it can't
+         */
+        static void check(Field field) {
+            if (!TYPES.contains(field.getType()) || Modifier.isPrivate(field.getModifiers()) ||
+                    Modifier.isFinal(field.getModifiers()) || Modifier.isStatic(field.getModifiers())) {
+                throw new IllegalStateException("Fixture field must be a non-private, non-final primitive array or buffer: " + field);
+            }
+            Fixture fixture = field.getAnnotation(Fixture.class);
+            if (fixture.length() <= 0 || (long) fixture.length() * width(field.getType()) > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Fixture must have a positive length of at most 2GB: " + field);
+            }
+            if (fixture.bound() < 0) throw new IllegalStateException("Fixture bound must not be negative: " + field);
+        }
+
+        /**
+         * Where a fork without a fixture directory of its own keeps them
+         */
+        static File directory() {
+            return new File(System.getProperty("java.io.tmpdir"), "minimark-fixtures");
+        }
+
+        /**
+         * Generates the file of a fixture, unless it's already there
+         *
+         * @param directory the fixture directory
+         * @param type the type of the field
+         * @param length the amount of elements
+         * @param seed the seed of the elements
+         * @param bound the bound of the elements, 0 for any value
+         * @return the file, or null if it was already there
+         * @throws IOException if it can't be written
+         */
+        static File generate(File directory, Class<?> type, int length, long seed, long bound) throws IOException {
+            File file = file(directory, type, length, seed, bound);
+            if (file.length() == (long) length * width(type)) return null;
+
+            Files.createDirectories(directory.toPath());
+            // Forks generating the same fixture each write their own and the last one wins
+            Path temp = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                SplittableRandom random = new SplittableRandom(seed);
+                ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+                Class<?> element = element(type);
+                for (int i = 0; i < length; i++) {
+                    if (element == double.class) {
+                        chunk.putDouble(random.nextDouble());
+                    } else {
+                        long value = bound > 0 ? random.nextLong(bound) : random.nextLong();
+                        if (element == byte.class) chunk.put((byte) value);
+                        else if (element == int.class) chunk.putInt((int) value);
+                        else chunk.putLong(value);
+                    }
+                    if (chunk.remaining() < Long.BYTES) write(channel, chunk);
+                }
+                write(channel, chunk);
+            }
+            try {
+                Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return file;
+        }
+
+        private static void write(FileChannel channel, ByteBuffer chunk) throws IOException {
+            chunk.flip();
+            while (chunk.hasRemaining()) channel.write(chunk);
+            chunk.clear();
+        }
+
+        /**
+         * Loads a fixture ahead of the construction of the invoker, which then takes it from
+         * {@link #load(String, int, long, long)}, so single shots don't time the mapping and copy
+         * as part of creating the instance
+         *
+         * @param type the name of the type of the field
+         * @param length the amount of elements
+         * @param seed the seed of the elements
+         * @param bound the bound of the elements, 0 for any value
+         */
+        public static void prepare(String type, int length, long seed, long bound) {
+            Object fixture = map(type, length, seed, bound);
+            prepared.computeIfAbsent(type + " " + length + " " + seed + " " + bound, k -> new ArrayDeque<>()).add(fixture);
+        }
+
+        /**
+         * Maps a fixture into this fork, called by the invoker before setup, or takes the one
+         * prepared for it
+         *
+         * @param type the name of the type of the field
+         * @param length the amount of elements
+         * @param seed the seed of the elements
+         * @param bound the bound of the elements, 0 for any value
+         * @return the read-only buffer, or the array copied out of the mapping
+         */
+        public static Object load(String type, int length, long seed, long bound) {
+            Deque<Object> fixtures = prepared.get(type + " " + length + " " + seed + " " + bound);
+            if (fixtures != null && !fixtures.isEmpty()) return fixtures.poll();
+            return map(type, length, seed, bound);
+        }
+
+        private static Object map(String type, int length, long seed, long bound) {
+            Class<?> cls = null;
+            for (Class<?> candidate : TYPES) {
+                if (candidate.getName().equals(type)) cls = candidate;
+            }
+            if (cls == null) throw new IllegalArgumentException("Not a fixture type: " + type);
+
+            String property = System.getProperty("minimark.fixtures");
+            File directory = property != null && (new File(property).isDirectory() || new File(property).mkdirs()) ?
+                    new File(property) : directory();
+            try {
+                // Only if the parent couldn't
+                generate(directory, cls, length, seed, bound);
+                // The mapping stays valid once the channel is closed
+                try (FileChannel channel = FileChannel.open(file(directory, cls, length, seed, bound).toPath())) {
+                    ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0L, (long) length * width(cls))
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                    if (cls == ByteBuffer.class) return mapping;
+                    if (cls == IntBuffer.class) return mapping.asIntBuffer();
+                    if (cls == LongBuffer.class) return mapping.asLongBuffer();
+                    if (cls == DoubleBuffer.class) return mapping.asDoubleBuffer();
+                    if (cls == byte[].class) {
+                        byte[] array = new byte[length];
+                        mapping.get(array);
+                        return array;
+                    }
+                    if (cls == int[].class) {
+                        int[] array = new int[length];
+                        mapping.asIntBuffer().get(array);
+                        return array;
+                    }
+                    if (cls == long[].class) {
+                        long[] array = new long[length];
+                        mapping.asLongBuffer().get(array);
+                        return array;
+                    }
+                    double[] array = new double[length];
+                    mapping.asDoubleBuffer().get(array);
+                    return array;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static File file(File directory, Class<?> type, int length, long seed, long bound) {
+            return new File(directory, String.format("%s-%d-%x-%d.bin", element(type), length, seed, bound));
+        }
+
+        private static Class<?> element(Class<?> type) {
+            if (type.isArray()) return type.getComponentType();
+            if (type == ByteBuffer.class) return byte.class;
+            if (type == IntBuffer.class) return int.class;
+            return type == LongBuffer.class ? long.class : double.class;
+        }
+
+        private static int width(Class<?> type) {
+            Class<?> element = element(type);
+            if (element == byte.class) return Byte.BYTES;
+            return element == int.class ? Integer.BYTES : Long.BYTES;
+        }
+    }
+
+    /**
+     * The statistics used to tell whether a difference between results is real
+     *
+     * @author caojohnny
+     */
+    static final class Statistics {
+        /** The significance level differences are tested at */
+        static final double ALPHA = 0.05D;
+
+        private Statistics() {
+        }
+
+        /**
+         * Runs a paired t-test on the rounds of the two sides of a comparison
+         *
+         * @param a the baseline
+         * @param b the contender
+         * @return the difference, its confidence interval and significance
+         */
+        static String paired(Result a, Result b) {
+            if (a.failed() || b.failed()) return "not compared, a side failed";
+            int n = Math.min(a.samples.size(), b.samples.size());
+            if (n < 2) return "not compared, needs 2 rounds";
+
+            // Relative to the baseline of the same round, drift cancels out
+            double[] diffs = new double[n];
+            for (int i = 0; i < n; i++) {
+                diffs[i] = (b.samples.get(i) - a.samples.get(i)) / a.samples.get(i) * 100;
+            }
+            double mean = mean(diffs);
+            double error = Math.sqrt(variance(diffs, mean) / n);
+            double t = error == 0 ? (mean == 0 ? 0 : Double.POSITIVE_INFINITY) : mean / error;
+            double p = twoTailed(t, n - 1);
+            double margin = quantile(1 - ALPHA / 2, n - 1) * error;
+
+            String verdict = p >= ALPHA ? "no significant difference" : mean < 0 ? "b is faster" : "b is slower";
+            return String.format("a %.3f ns, b %.3f ns, %+.2f%% (95%% CI %+.2f%% to %+.2f%%), t = %.2f, p = %.4f over %d rounds: %s",
+                    a.avg, b.avg, mean, mean - margin, mean + margin, t, p, n, verdict);
+        }
+
+        /**
+         * Fits a line through the values by least squares and tests whether its slope is real
+         *
+         * @param values the values in the order they were taken, at least 3
+         * @return the fitted first and last values, and the two-tailed p-value of the slope
+         */
+        static double[] trend(double[] values) {
+            int n = values.length;
+            double xMean = (n - 1) / 2D;
+            double yMean = mean(values);
+            double sxx = 0;
+            double sxy = 0;
+            for (int i = 0; i < n; i++) {
+                sxx += (i - xMean) * (i - xMean);
+                sxy += (i - xMean) * (values[i] - yMean);
+            }
+            double slope = sxy / sxx;
+            double first = yMean - slope * xMean;
+
+            double residuals = 0;
+            for (int i = 0; i < n; i++) {
+                double residual = values[i] - (first + slope * i);
+                residuals += residual * residual;
+            }
+            double error = Math.sqrt(residuals / (n - 2) / sxx);
+            double t = error == 0 ? slope == 0 ? 0 : Double.POSITIVE_INFINITY : slope / error;
+            return new double[] {first, first + slope * (n - 1), twoTailed(t, n - 2)};
+        }
+
+        static double mean(double[] values) {
+            double sum = 0;
+            for (double value : values) sum += value;
+            return sum / values.length;
+        }
+
+        /**
+         * The sample variance
+         */
+        static double variance(double[] values, double mean) {
+            double sum = 0;
+            for (double value : values) sum += (value - mean) * (value - mean);
+            return sum / (values.length - 1);
+        }
+
+        /**
+         * The probability of a t at least as far from 0 as the given one
+         *
+         * @param t the t statistic
+         * @param df the degrees of freedom
+         * @return the two-tailed p-value
+         */
+        static double twoTailed(double t, int df) {
+            if (Double.isInfinite(t)) return 0;
+            return incompleteBeta(df / 2D, 0.5D, df / (df + t * t));
+        }
+
+        /**
+         * The t with the given cumulative probability, found by bisection
+         *
+         * @param probability the probability, above 0.5
+         * @param df the degrees of freedom
+         * @return the quantile
+         */
+        static double quantile(double probability, int df) {
+            double low = 0;
+            double high = 1000;
+            for (int i = 0; i < 100; i++) {
+                double mid = (low + high) / 2;
+                if (1 - twoTailed(mid, df) / 2 < probability) low = mid;
+                else high = mid;
+            }
+            return (low + high) / 2;
+        }
+
+        /**
+         * The regularized incomplete beta function, from the continued fraction in Numerical Recipes
+         */
+        static double incompleteBeta(double a, double b, double x) {
+            if (x <= 0) return 0;
+            if (x >= 1) return 1;
+
+            double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x));
+            // Converges quickly on this side
+            if (x >= (a + 1) / (a + b + 2)) return 1 - front * fraction(b, a, 1 - x) / b;
+            return front * fraction(a, b, x) / a;
+        }
+
+        private static double fraction(double a, double b, double x) {
+            double tiny = 1e-300;
+            double c = 1;
+            double d = 1 - (a + b) * x / (a + 1);
+            if (Math.abs(d) < tiny) d = tiny;
+            d = 1 / d;
+            double h = d;
+            for (int m = 1; m <= 300; m++) {
+                double even = m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m));
+                d = 1 + even * d;
+                if (Math.abs(d) < tiny) d = tiny;
+                c = 1 + even / c;
+                if (Math.abs(c) < tiny) c = tiny;
+                d = 1 / d;
+                h *= d * c;
+
+                double odd = -(a + m) * (a + b + m) * x / ((a + 2 * m) * (a + 2 * m + 1));
+                d = 1 + odd * d;
+                if (Math.abs(d) < tiny) d = tiny;
+                c = 1 + odd / c;
+                if (Math.abs(c) < tiny) c = tiny;
+                d = 1 / d;
+                double delta = d * c;
+                h *= delta;
+                if (Math.abs(delta - 1) < 1e-12) break;
+            }
+            return h;
+        }
+
+        /**
+         * The log of the gamma function, Lanczos approximation
+         */
+        static double logGamma(double x) {
+            double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+                    -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+            double y = x;
+            double tmp = x + 5.5;
+            tmp -= (x + 0.5) * Math.log(tmp);
+            double series = 1.000000000190015;
+            for (double coefficient : coefficients) series += coefficient / ++y;
+            return -tmp + Math.log(2.5066282746310005 * series / x);
+        }
+    }
+
+    /**
+     * A Java Flight Recorder recording of a fork's measurement window, and the parent's summary of it
+     *
+     * <p>Only loaded when recording, so JVMs without JFR can still run everything else.</p>
+     *
+     * @author caojohnny
+     */
+    public static final class Flight {
+        /** The amount of entries in each part of the summary */
+        private static final int TOP = 5;
+
+        private final String benchmark;
+        private final Recording recording;
+        private final Path path;
+        private BatchEvent event;
+
+        private Flight(String benchmark, Recording recording, Path path) {
+            this.benchmark = benchmark;
+            this.recording = recording;
+            this.path = path;
+        }
+
+        static Flight start(String benchmark, Path path) throws IOException, ParseException {
+            Recording recording = new Recording(Configuration.getConfiguration("profile"));
+            recording.setName(benchmark);
+            recording.enable(BatchEvent.class);
+            // Short waits add up in a benchmark, the profile only records the ones over 10 ms
+            recording.enable("jdk.JavaMonitorEnter").withThreshold(Duration.ZERO);
+            recording.start();
+
+            Flight flight = new Flight(benchmark, recording, path);
+            flight.next();
+            return flight;
+        }
+
+        private void next() {
+            event = new BatchEvent();
+            event.benchmark = benchmark;
+            event.begin();
+        }
+
+        void batch(long ops, long time) {
+            event.ops = ops;
+            event.measured = time;
+            event.commit();
+            next();
+        }
+
+        void stop() throws IOException {
+            recording.stop();
+            recording.dump(path);
+            recording.close();
+        }
+
+        /**
+         * Summarizes the hottest methods, allocation sites, contended monitors and the GC pauses that
+         * overlapped batches in the recording
+         *
+         * @param path the recording
+         * @return the summary, indented and one item per line
+         * @throws IOException if the recording can't be read
+         */
+        static String summarize(Path path) throws IOException {
+            Map<String, Long> samples = new HashMap<>();
+            Map<String, Long> allocations = new HashMap<>();
+            Map<String, Long> contention = new HashMap<>();
+            Map<String, Long> contended = new HashMap<>();
+            List<RecordedEvent> batches = new ArrayList<>();
+            List<RecordedEvent> pauses = new ArrayList<>();
+            long sampled = 0;
+
+            for (RecordedEvent event : RecordingFile.readAllEvents(path)) {
+                switch (event.getEventType().getName()) {
+                    case "jdk.ExecutionSample":
+                        samples.merge(topFrame(event), 1L, Long::sum);
+                        sampled++;
+                        break;
+                    case "jdk.ObjectAllocationInNewTLAB":
+                        allocations.merge(topFrame(event), event.getLong("tlabSize"), Long::sum);
+                        break;
+                    case "jdk.ObjectAllocationOutsideTLAB":
+                        allocations.merge(topFrame(event), event.getLong("allocationSize"), Long::sum);
+                        break;
+                    case "jdk.JavaMonitorEnter":
+                        String monitor = event.getClass("monitorClass").getName();
+                        contention.merge(monitor, event.getDuration().toNanos(), Long::sum);
+                        contended.merge(monitor, 1L, Long::sum);
+                        break;
+                    case "jdk.GCPhasePause":
+                        pauses.add(event);
+                        break;
+                    case BatchEvent.NAME:
+                        batches.add(event);
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            StringBuilder builder = new StringBuilder();
+            builder.append("  Hot methods (").append(sampled).append(" samples):\n");
+            for (Map.Entry<String, Long> entry : top(samples)) {
+                builder.append(String.format("    %5.1f%% %s%n", entry.getValue() * 100D / sampled, entry.getKey()));
+            }
+            if (samples.isEmpty()) builder.append("    none\n");
+
+            builder.append("  Allocations:\n");
+            for (Map.Entry<String, Long> entry : top(allocations)) {
+                builder.append(String.format("    %,d bytes %s%n", entry.getValue(), entry.getKey()));
+            }
+            if (allocations.isEmpty()) builder.append("    none\n");
+
+            builder.append("  Lock contention:\n");
+            for (Map.Entry<String, Long> entry : top(contention)) {
+                builder.append(String.format("    %d times, %.3f ms %s%n", contended.get(entry.getKey()),
+                        entry.getValue() / 1_000_000D, entry.getKey()));
+            }
+            if (contention.isEmpty()) builder.append("    none\n");
+
+            // Splits the batches by whether a GC pause landed in them
+            Set<RecordedEvent> hit = new HashSet<>();
+            int overlapping = 0;
+            long paused = 0;
+            for (RecordedEvent pause : pauses) {
+                boolean overlaps = false;
+                for (RecordedEvent batch : batches) {
+                    if (batch.getStartTime().isBefore(pause.getEndTime()) &&
+                            pause.getStartTime().isBefore(batch.getEndTime())) {
+                        hit.add(batch);
+                        overlaps = true;
+                    }
+                }
+                if (overlaps) {
+                    overlapping++;
+                    paused += pause.getDuration().toNanos();
+                }
+            }
+            long hitOps = 0, hitTime = 0, cleanOps = 0, cleanTime = 0;
+            for (RecordedEvent batch : batches) {
+                if (hit.contains(batch)) {
+                    hitOps += batch.getLong("ops");
+                    hitTime += batch.getLong("measured");
+                } else {
+                    cleanOps += batch.getLong("ops");
+                    cleanTime += batch.getLong("measured");
+                }
+            }
+            builder.append(String.format("  GC pauses: %d in %d of %d batches, %.3f ms total", overlapping,
+                    hit.size(), batches.size(), paused / 1_000_000D));
+            if (hitOps > 0 && cleanOps > 0) {
+                builder.append(String.format(", %.3f ns/op in those batches vs %.3f ns/op",
+                        (double) hitTime / hitOps, (double) cleanTime / cleanOps));
+            }
+            builder.append('\n');
+
+            return builder.toString();
+        }
+
+        private static String topFrame(RecordedEvent event) {
+            if (event.getStackTrace() == null || event.getStackTrace().getFrames().isEmpty()) return "<unknown>";
+            RecordedFrame frame = event.getStackTrace().getFrames().get(0);
+            return frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+        }
+
+        private static List<Map.Entry<String, Long>> top(Map<String, Long> counts) {
+            List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+            entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+            return entries.subList(0, Math.min(TOP, entries.size()));
+        }
+    }
+
+    /**
+     * One batch of the measurement loop, recorded when flight recording is on
+     *
+     * @author caojohnny
+     */
+    @Name(BatchEvent.NAME)
+    @jdk.jfr.Label("MiniMark Batch")
+    @Category("MiniMark")
+    public static class BatchEvent extends Event {
+        static final String NAME = "com.gmail.woodyc40.minimark.Batch";
+
+        @jdk.jfr.Label("Benchmark")
+        String benchmark;
+        @jdk.jfr.Label("Operations")
+        long ops;
+        @jdk.jfr.Label("Measured Time")
+        @Timespan
+        long measured;
+    }
+
+    /**
+     * Swallows up unused references to make stateful changes and cheat the JIT
+     *
+     * @author caojohnny
+     */
+    public static class StatefulOp {
+        /** The random value for opchecks */
+        private long random = prng(0);
+        /** The value for burning off CPU */
+        private long x = prng(0);
+
+        // Only instantiable in this class
+        StatefulOp() {
+        }
+
+        private long prng(long seed) {
+            return Math.abs((int) (System.currentTimeMillis()) - (0x61732 & seed)) / new Object().hashCode();
+        }
+
+        /**
+         * Burns off CPU time [linearly] to the given i
+         *
+         * @param i the time
+         */
+        public void burn(int i) {
+            for (; i > 0; i--) {
+                x |= (x ^ 0xF457) & (i ^ 0x38D3);
+            }
+        }
+
+        // The idea of this class is to check a bunch of random events and see if they are true
+        // if they are, then update the state of the internal random value
+        // predominantly, it checks if a value is equal to the max value of the data type, and if
+        // the random also equals the particular number.
+        // Even if the number is the maximum, the random is highly, highly unlikely to be so
+        // primarily because currentTimeMillis in the prng function will always return a higher number
+        // than the last random's currentTimeMillis. If the subtracted number happens to be negative,
+        // then the hashCode needs to be negative as well. I haven't seen many negative hashCodes,
+        // and even then, if the number is positive, the hashcode needs to be FRACTIONAL to increase
+        // currentTimeMillis to the max integer
+
+        // I am hoping the JIT doesn't DCE the op methods because the last value must be known
+        // and even a decent compiler isn't stupid enough to determine the last 0-millions of
+        // milliseconds worth just to compute the time...
+
+        // Consumption methods
+
+        public void op(Object o) {
+            op(o.hashCode());
+        }
+
+        // Each method given for the primitive
+        // primitive boxing is very expensive at times
+        // otherwise use Object cast as necessary
+
+        // Please java please inline the constants
+        public void op(int i) {
+            if (i == Integer.MAX_VALUE && i == random) {
+                random = prng(random);
+            }
+        }
+
+        // This can't happen because only 0/x will equal 0
+        public void op(float i) {
+            if (i != 0 && i / random == 0) {
+                random = prng(random);
+            }
+        }
+
+        // This works because rounding on integer types
+        // will round. This won't, so having the numerator
+        // equal to zero and equal a quotient of zero isn't
+        // happening
+        public void op(double i) {
+            if (i != 0 && i / random == 0) {
+                random = prng(random);
+            }
+        }
+
+        public void op(char i) {
+            if (i == Character.MAX_VALUE && i == random) {
+                random = prng(random);
+            }
+        }
+
+        public void op(short i) {
+            if (i == Short.MAX_VALUE && i == random) {
+                random = prng(random);
+            }
+        }
+
+        public void op(long i) {
+            if (i == Long.MAX_VALUE && i == random) {
+                random = prng(random);
+            }
+        }
+
+        public void op(byte i) {
+            if (i == Byte.MAX_VALUE && i == random) {
+                random = prng(random);
+            }
+        }
+
+        public void op(boolean i) {
+            if (!i && random == Integer.MAX_VALUE) {
+                random = prng(random);
+            }
+        }
+    }
+
+    /**
+     * Extend this class to represent a Unit that has methods which are becnhmarked
+     *
+     * @author caojohnny
+     */
+    public static class Unit {
+        public StatefulOp op = new StatefulOp();
+        public Runnable setup = NO_OP;
+        public Runnable teardown = NO_OP;
+
+        /**
+         * Determines the latency + granularity of nanoTime
+         *
+         * <p>Starts the timer, then sets the stop when the next invocation of nanoTime doesn't equal the start.</p>
+         *
+         * <p>Called internally</p>
+         *
+         * @return an arbitrary number passed to the iteration determination method
+         */
+        public final long nanoAccuracy() {
+            long start = System.nanoTime();
+            long stop;
+
+            while ((stop = System.nanoTime()) == start);
+
+            return stop - start;
+        }
+
+        /**
+         * Complex method determines the next amount of iterations to run the test iterations
+         *
+         * <p>Nice to play around with, but calling this method won't do anything. Mostly used internally. Please don't proxy it.</p>
+         *
+         * <p>The implementation is described in the source</p>
+         *
+         * @param speculatedTimePerOp the time of the last run per opertion
+         * @param nanoAcc the granularity + latency of the nanoTime method
+         * @param left the amount of runs left
+         * @return the iterations to run next
+         */
+        public final int calcIterations(long speculatedTimePerOp, long nanoAcc, int left) {
+            double timeMustPass = Math.ceil(nanoAcc * 2); // Compensates for fluctuations in
+                                                          // accuracy of nanotime
+
+            // This could happen if the rounding becomes retarded
+            // resulting in divide by zero error
+            // therefore we must set the minimum at the smallest positive integer
+            if (speculatedTimePerOp == 0) speculatedTimePerOp = 1;
+
+            // Avoids rechecking too often
+            // This number must be small enough such that the runs of this test method
+            // will setup/teardown with at least some frequency
+            int shouldDo = 4;
+            if (speculatedTimePerOp < timeMustPass) {
+                // Calculates amount that can be usefully done in the required time
+                // minus one because the increment occurs first
+                int might = (int) Math.ceil(timeMustPass / speculatedTimePerOp) - 1;
+
+                // If it breaks the minimum, we've got the value
+                if (might > shouldDo) {
+                    shouldDo = might;
+                }
+
+                // Otherwise if it is too small, handle the minimum value
+            }
+
+            // If the amount of repetitions left is less than the current amount
+            // add that too so we can finish evenly
+            // sometimes this will fail... check has been added in the synthetic method
+            if (left > 0) {
+                if (left <= shouldDo) {
+                    shouldDo = left;
+                }
+            }
+
+            return shouldDo;
+        }
+    }
+
+    /**
+     * Receives the progress of a run as it happens
+     *
+     * <p>Benchmarks are named the same as their results. Every method does nothing by default.</p>
+     *
+     * <p>Without agents, every event arrives on the thread calling {@link #run(String...)}. With
+     * {@link #setAgents(String...)}, each agent reports from its own thread while the others run,
+     * so events for different benchmarks can arrive concurrently and implementations have to be
+     * thread-safe. The events of one benchmark in one environment still arrive in order.</p>
+     *
+     * @author caojohnny
+     */
+    public interface Listener {
+        /**
+         * A fork has connected, single shots and comparisons start several for each result
+         *
+         * @param benchmark the name of the benchmark
+         * @param environment the label of the environment
+         * @param pid the process ID of the fork, -1 if unknown
+         */
+        default void forkStarted(String benchmark, String environment, long pid) {
+        }
+
+        /**
+         * A round of warmup has finished, rounds are repeated for two seconds in every fork. At most
+         * one round is reported every 100 ms, always including the last, so rounds can be skipped.
+         *
+         * @param benchmark the name of the benchmark
+         * @param environment the label of the environment
+         * @param round the round, from 1
+         * @param time the average time of an op in the round in ns
+         */
+        default void warmup(String benchmark, String environment, int round, long time) {
+        }
+
+        /**
+         * An iteration of the measurement has finished, at least 100 ms of it except for the last.
+         * Thread groups and single shots don't have iterations.
+         *
+         * @param benchmark the name of the benchmark
+         * @param environment the label of the environment
+         * @param iteration the iteration, from 1
+         * @param ops the ops measured in the iteration
+         * @param time the measured time of the iteration in ns
+         */
+        default void iteration(String benchmark, String environment, int iteration, long ops, long time) {
+        }
+
+        /**
+         * A benchmark has a result in an environment, warnings comparing it to the rest of its
+         * group are added once every benchmark has run
+         *
+         * @param result the result
+         */
+        default void completed(Result result) {
+        }
+
+        /**
+         * A benchmark has failed in an environment, or was skipped after {@link MiniMark#stop()}
+         *
+         * @param result the failed result
+         */
+        default void failed(Result result) {
+        }
+    }
+
+    /**
+     * How often and how long the measuring threads of a role were blocked entering a monitor or
+     * waiting, which includes parking on a java.util.concurrent lock, while measured
+     *
+     * @author caojohnny
+     */
+    public static final class Contention {
+        private final long blocked;
+        private final long blockedTime;
+        private final long waited;
+        private final long waitedTime;
+        private final long ops;
+
+        Contention(long blocked, long blockedTime, long waited, long waitedTime, long ops) {
+            this.blocked = blocked;
+            this.blockedTime = blockedTime;
+            this.waited = waited;
+            this.waitedTime = waitedTime;
+            this.ops = ops;
+        }
+
+        /**
+         * The times the threads blocked to enter a monitor
+         */
+        public long blocked() {
+            return blocked;
+        }
+
+        /**
+         * The time the threads spent blocked in millis
+         */
+        public long blockedTime() {
+            return blockedTime;
+        }
+
+        /**
+         * The times the threads waited or parked
+         */
+        public long waited() {
+            return waited;
+        }
+
+        /**
+         * The time the threads spent waiting in millis
+         */
+        public long waitedTime() {
+            return waitedTime;
+        }
+
+        /**
+         * The time blocked or waiting for each op measured, in ns
+         */
+        public double perOp() {
+            return ops == 0 ? 0D : (blockedTime + waitedTime) * 1_000_000D / ops;
+        }
+
+        /**
+         * Whether the threads ever blocked or waited
+         */
+        public boolean contended() {
+            return blocked + waited > 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("blocked %d times for %d ms, waited %d times for %d ms, %.3f ns per op",
+                    blocked, blockedTime, waited, waitedTime, perOp());
+        }
+    }
+
+    /**
+     * The throughput, memory and compilations of a fork during one window of a soak
+     *
+     * @author caojohnny
+     */
+    public static final class Window {
+        /** How far a trend may move over the soak before it's worth a warning */
+        private static final double DRIFT = 0.05D;
+        /** How full the code cache may get before it's worth a warning */
+        private static final double FULL = 0.9D;
+
+        private final long ops;
+        private final long time;
+        private final long heap;
+        private final long codeCache;
+        private final long codeCacheMax;
+        private final long compiles;
+        private final long invalidations;
+        private final long compileTime;
+
+        Window(long ops, long time, long heap, long codeCache, long codeCacheMax, long compiles, long invalidations,
+               long compileTime) {
+            this.ops = ops;
+            this.time = time;
+            this.heap = heap;
+            this.codeCache = codeCache;
+            this.codeCacheMax = codeCacheMax;
+            this.compiles = compiles;
+            this.invalidations = invalidations;
+            this.compileTime = compileTime;
+        }
+
+        /**
+         * The ops measured in the window
+         */
+        public long ops() {
+            return ops;
+        }
+
+        /**
+         * The measured time of those ops in nanos
+         */
+        public long time() {
+            return time;
+        }
+
+        /**
+         * The average time of an op in the window in ns
+         */
+        public double perOp() {
+            return ops == 0 ? 0D : (double) time / ops;
+        }
+
+        /**
+         * The heap left after the last collection of each pool at the end of the window in bytes
+         */
+        public long heap() {
+            return heap;
+        }
+
+        /**
+         * The code cache in use at the end of the window in bytes
+         */
+        public long codeCache() {
+            return codeCache;
+        }
+
+        /**
+         * The size the code cache may grow to in bytes
+         */
+        public long codeCacheMax() {
+            return codeCacheMax;
+        }
+
+        /**
+         * The methods compiled during the window, -1 if the counters of the fork can't be read
+         */
+        public long compiles() {
+            return compiles;
+        }
+
+        /**
+         * The compiled methods thrown away during the window because an assumption they were
+         * compiled with broke, -1 if the counters of the fork can't be read
+         */
+        public long invalidations() {
+            return invalidations;
+        }
+
+        /**
+         * The time the JIT spent compiling during the window in millis, -1 if not monitored
+         */
+        public long compileTime() {
+            return compileTime;
+        }
+
+        /**
+         * Fits a trend to each series of a soak and describes the significant ones
+         *
+         * @param windows the windows of the soak
+         * @return the warnings, empty if nothing drifted or there are too few windows to tell
+         */
+        static List<String> drift(List<Window> windows) {
+            List<String> warnings = new ArrayList<>();
+            if (windows.size() < 3) return warnings;
+
+            double[] perOp = Statistics.trend(series(windows, Window::perOp));
+            if (perOp[2] < Statistics.ALPHA && Math.abs(change(perOp)) > DRIFT) {
+                warnings.add(String.format("ns/op drifted %+.1f%% over the soak (p = %.4f)", change(perOp) * 100, perOp[2]));
+            }
+            double[] heap = Statistics.trend(series(windows, Window::heap));
+            if (heap[2] < Statistics.ALPHA && change(heap) > DRIFT) {
+                warnings.add(String.format("heap after GC grew %+.1f%% over the soak (p = %.4f)", change(heap) * 100, heap[2]));
+            }
+            double[] code = Statistics.trend(series(windows, Window::codeCache));
+            if (code[2] < Statistics.ALPHA && change(code) > DRIFT) {
+                warnings.add(String.format("code cache grew %+.1f%% over the soak (p = %.4f)", change(code) * 100, code[2]));
+            }
+            Window last = windows.get(windows.size() - 1);
+            if (last.codeCacheMax > 0 && last.codeCache > FULL * last.codeCacheMax) {
+                warnings.add(String.format("code cache %.0f%% full", 100D * last.codeCache / last.codeCacheMax));
+            }
+            long late = 0;
+            for (Window window : windows.subList(windows.size() / 4, windows.size())) {
+                late += Math.max(0L, window.invalidations);
+            }
+            if (late > 0) warnings.add(late + " compiled methods invalidated after the first quarter of the soak");
+            return warnings;
+        }
+
+        /**
+         * The relative change of a trend from its fitted first value to its last, 0 if it starts at 0
+         */
+        static double change(double[] trend) {
+            return trend[0] > 0 ? trend[1] / trend[0] - 1 : 0D;
+        }
+
+        static double[] series(List<Window> windows, ToDoubleFunction<Window> value) {
+            double[] series = new double[windows.size()];
+            for (int i = 0; i < series.length; i++) series[i] = value.applyAsDouble(windows.get(i));
+            return series;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d ops, %.3f ns per op, heap %dKB, code cache %dKB, %d compiles, %d invalidations",
+                    ops, perOp(), heap / 1024, codeCache / 1024, compiles, invalidations);
+        }
+    }
+
+    /**
+     * The latency of a method at one arrival rate of an open loop, timed from when each call was
+     * scheduled to start
+     *
+     * @author caojohnny
+     */
+    public static final class Rate {
+        /** How much the p99 may grow over the slowest rate's before latency has turned upward */
+        private static final double KNEE = 3D;
+        /** The share of the target rate that has to be kept up for the rate to be sustained */
+        private static final double SUSTAINED = 0.95D;
+
+        private final double target;
+        private final long calls;
+        private final long elapsed;
+        private final long median;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        Rate(double target, long calls, long elapsed, long median, long p90, long p99, long p999, long max) {
+            this.target = target;
+            this.calls = calls;
+            this.elapsed = elapsed;
+            this.median = median;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        /**
+         * The rate calls were scheduled at, per second
+         */
+        public double target() {
+            return target;
+        }
+
+        /**
+         * The rate calls were made at, per second, lower than the target if it couldn't be kept up
+         */
+        public double achieved() {
+            return elapsed == 0 ? 0D : calls * 1e9 / elapsed;
+        }
+
+        /**
+         * Whether the target rate was kept up
+         */
+        public boolean sustained() {
+            return achieved() >= SUSTAINED * target;
+        }
+
+        /**
+         * The calls made
+         */
+        public long calls() {
+            return calls;
+        }
+
+        /**
+         * The median latency in ns
+         */
+        public long median() {
+            return median;
+        }
+
+        /**
+         * The 90th percentile latency in ns
+         */
+        public long p90() {
+            return p90;
+        }
+
+        /**
+         * The 99th percentile latency in ns
+         */
+        public long p99() {
+            return p99;
+        }
+
+        /**
+         * The 99.9th percentile latency in ns
+         */
+        public long p999() {
+            return p999;
+        }
+
+        /**
+         * The highest latency in ns
+         */
+        public long max() {
+            return max;
+        }
+
+        /**
+         * Finds the rate latency turns sharply upward after, the last one that was sustained with a
+         * p99 within 3 times the slowest rate's
+         *
+         * @param rates the rates, slowest first
+         * @return the index of the knee, -1 if the slowest rate is already past it
+         */
+        static int knee(List<Rate> rates) {
+            for (int i = 0; i < rates.size(); i++) {
+                Rate rate = rates.get(i);
+                if (!rate.sustained() || rate.p99 > KNEE * Math.max(1L, rates.get(0).p99)) return i - 1;
+            }
+            return rates.size() - 1;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.0f/s: achieved %.0f/s, p50 %d ns, p90 %d ns, p99 %d ns, p99.9 %d ns, max %d ns",
+                    target, achieved(), median, p90, p99, p999, max);
+        }
+    }
+
+    /**
+     * Represents the data collected by the benchmark
+     *
+     * @author caojohnny
+     */
+    public static class Result {
+        // Data
+        private final double avg;
+        private final String name;
+        private final String failure;
+        private String dump;
+        private long ops;
+        private long batches;
+        private long resolution;
+        private String profile;
+        private String environment;
+        private double noise;
+        private double load;
+        private String hash;
+        private boolean reused;
+        private final List<String> warnings = new ArrayList<>();
+        /** The tier measure() was compiled at when measuring started, 0 if interpreted and -1 if unknown */
+        private int tier = -1;
+        /** The average of each fork of one side of a comparison or single shot, empty otherwise */
+        private final List<Double> samples = new ArrayList<>();
+        /** The average of each iteration of the measurement in ns, in the order they ran */
+        private final List<Double> iterations = new ArrayList<>();
+        /** The time in nanos of creating the unit and of each call after, for each single shot fork */
+        private final List<long[]> shots = new ArrayList<>();
+        /** The classes loaded by creating the unit and by each call, for each single shot fork */
+        private final List<long[]> loads = new ArrayList<>();
+        /** The latency of each method of a mix or thread group in ns, empty otherwise */
+        private final Map<String, Double> methods = new LinkedHashMap<>();
+        /** The contention of each role of a thread group, or of the measuring thread */
+        private final Map<String, Contention> contention = new LinkedHashMap<>();
+        /** The share of samples of a thread group that found a thread blocked on each lock */
+        private final Map<String, Double> monitors = new LinkedHashMap<>();
+        /** The safepoints that ended during the measurement, -1 if not logged */
+        private long safepoints = -1L;
+        /** The time spent in those safepoints in nanos */
+        private long safepointTime;
+        /** The longest time to safepoint of those in nanos */
+        private long timeToSafepoint;
+        /** The length of the measurement window in nanos, as seen by the safepoint log */
+        private long window;
+        /** The growth of committed native memory of each NMT category in bytes, null if not tracked */
+        private Map<String, Long> nativeMemory;
+        /** Each window of the soak, in the order they ran, empty if not soaked */
+        private final List<Window> soak = new ArrayList<>();
+        /** The latency at each rate of the open loop, slowest rate first, empty without one */
+        private final List<Rate> rates = new ArrayList<>();
+
+        private Result(MiniMark benchmark, String name, double data, String failure) {
+            this.name = name;
+            this.avg = data;
+            this.failure = failure;
+        }
+
+        public static Result compile(MiniMark benchmark, String name, double data) {
+            return new Result(benchmark, name, data, null);
+        }
+
+        public static Result fail(MiniMark benchmark, String name, String failure) {
+            return new Result(benchmark, name, -1D, failure);
+        }
+
+        public Row addValues(Table table, String group) {
+            Row row = table.createRow();
+            return row.setColumn(0, group + " - " + name).setColumn(1, format());
+        }
+
+        /**
+         * The average as printed in the results
+         */
+        public String format() {
+            return failure != null ? "FAILED (" + failure + ")" :
+                    BigDecimal.valueOf(avg).divide(BigDecimal.ONE, 3, BigDecimal.ROUND_HALF_UP).toString() + " ns" +
+                            (reused ? " (reused)" : "");
+        }
+
+        /**
+         * The hash of the code, settings and JVM that were measured, null unless running incrementally
+         */
+        public String hash() {
+            return hash;
+        }
+
+        /**
+         * Whether the result was reused from an earlier run because nothing it measured has changed
+         */
+        public boolean reused() {
+            return reused;
+        }
+
+        /**
+         * The JIT tier the measured code was compiled at when measuring started, 4 being C2, 0 if it
+         * was interpreted and -1 if the fork's JVM can't tell
+         */
+        public int tier() {
+            return tier;
+        }
+
+        /**
+         * The average of each fork if the result is one side of a comparison or a single shot, in
+         * the order they ran, empty otherwise
+         */
+        public List<Double> samples() {
+            return Collections.unmodifiableList(samples);
+        }
+
+        /**
+         * The average time of an op in each iteration of the measurement in ns, in the order they
+         * ran, empty for thread groups, single shots and reused results
+         */
+        public List<Double> iterations() {
+            return Collections.unmodifiableList(iterations);
+        }
+
+        /**
+         * The nearest rank percentile of the iterations
          *
-         * @return the result of the test
+         * @param percent the percentile, e.g. 99
+         * @return the average of an op in that iteration in ns, NaN without iterations
          */
-        public Result test() {
-            synchronized (Mark.class) {
-                DataInputStream stream = null;
-                Socket conn = null;
-                ServerSocket socket = null;
-                try {
-                    String s = System.getProperty("os.name").contains("Windows") ? ".exe" : "";
-                    String javaCmd = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java" + s;
-                    List<String> args = Lists.newArrayList(javaCmd);
-                    Collections.addAll(args, MiniMark.this.args);
-                    args.addAll(Lists.newArrayList("-classpath", ".", invoker));
-
-                    ProcessBuilder builder = new ProcessBuilder(args);
-                    builder.directory(new File(".")).inheritIO().start();
+        public double percentile(double percent) {
+            if (iterations.isEmpty()) return Double.NaN;
+            double[] sorted = new double[iterations.size()];
+            for (int i = 0; i < sorted.length; i++) sorted[i] = iterations.get(i);
+            Arrays.sort(sorted);
+            return MiniMark.percentile(sorted, percent);
+        }
 
-                    socket = new ServerSocket(5000);
-                    while ((conn = socket.accept()) == null) ;
+        /**
+         * The time in nanos of creating the unit and of each call after it, for each fork of a
+         * single shot, empty otherwise
+         */
+        public List<long[]> shots() {
+            return Collections.unmodifiableList(shots);
+        }
 
-                    stream = new DataInputStream(conn.getInputStream());
+        /**
+         * The classes loaded by creating the unit and by each call after it, for each fork of a
+         * single shot, empty otherwise
+         */
+        public List<long[]> classesLoaded() {
+            return Collections.unmodifiableList(loads);
+        }
 
-                    double d = stream.readDouble();
+        /**
+         * The latency in ns of each method of a mix, timed call by call in the mix's sequence, or of
+         * each role of a thread group, empty otherwise
+         */
+        public Map<String, Double> methods() {
+            return Collections.unmodifiableMap(methods);
+        }
 
-                    return result = Result.compile(MiniMark.this, name, d / profileIterations);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } finally {
-                    try {
-                        if (conn != null) conn.close();
-                        if (stream != null) stream.close();
-                        if (socket != null) socket.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-                return null;
-            }
+        /**
+         * How much each role of a thread group, or the thread measuring a single method, was blocked
+         * or waiting while measured, empty if the JVM can't monitor contention
+         */
+        public Map<String, Contention> contention() {
+            return Collections.unmodifiableMap(contention);
         }
-    }
 
-    /**
-     * Swallows up unused references to make stateful changes and cheat the JIT
-     *
-     * @author caojohnny
-     */
-    public static class StatefulOp {
-        /** The random value for opchecks */
-        private long random = prng(0);
-        /** The value for burning off CPU */
-        private long x = prng(0);
+        /**
+         * The locks the threads of a thread group were found blocked or waiting on most, with the
+         * share of samples of a thread that found it on each, most contended first
+         */
+        public Map<String, Double> monitors() {
+            return Collections.unmodifiableMap(monitors);
+        }
 
-        // Only instantiable in this class
-        StatefulOp() {
+        /**
+         * The safepoints that ended during the measurement, -1 unless logging safepoints
+         */
+        public long safepoints() {
+            return safepoints;
         }
 
-        private long prng(long seed) {
-            return Math.abs((int) (System.currentTimeMillis()) - (0x61732 & seed)) / new Object().hashCode();
+        /**
+         * The total time the measured threads were stopped for those safepoints in nanos
+         */
+        public long safepointTime() {
+            return safepointTime;
         }
 
         /**
-         * Burns off CPU time [linearly] to the given i
-         *
-         * @param i the time
+         * The longest time it took every thread to reach one of those safepoints in nanos
          */
-        public void burn(int i) {
-            for (; i > 0; i--) {
-                x |= (x ^ 0xF457) & (i ^ 0x38D3);
-            }
+        public long timeToSafepoint() {
+            return timeToSafepoint;
         }
 
-        // The idea of this class is to check a bunch of random events and see if they are true
-        // if they are, then update the state of the internal random value
-        // predominantly, it checks if a value is equal to the max value of the data type, and if
-        // the random also equals the particular number.
-        // Even if the number is the maximum, the random is highly, highly unlikely to be so
-        // primarily because currentTimeMillis in the prng function will always return a higher number
-        // than the last random's currentTimeMillis. If the subtracted number happens to be negative,
-        // then the hashCode needs to be negative as well. I haven't seen many negative hashCodes,
-        // and even then, if the number is positive, the hashcode needs to be FRACTIONAL to increase
-        // currentTimeMillis to the max integer
+        /**
+         * How much the committed native memory of each NMT category grew during the measurement in
+         * bytes, negative if it shrank, only the categories that changed. Null unless tracking
+         * native memory.
+         */
+        public Map<String, Long> nativeMemory() {
+            return nativeMemory == null ? null : Collections.unmodifiableMap(nativeMemory);
+        }
 
-        // I am hoping the JIT doesn't DCE the op methods because the last value must be known
-        // and even a decent compiler isn't stupid enough to determine the last 0-millions of
-        // milliseconds worth just to compute the time...
+        /**
+         * Each window of the soak in the order they ran, empty unless soaking. A soak too short for
+         * a single window is empty as well.
+         */
+        public List<Window> soak() {
+            return Collections.unmodifiableList(soak);
+        }
 
-        // Consumption methods
+        /**
+         * The latency at each rate of the open loop, slowest rate first, empty without an open loop
+         */
+        public List<Rate> rates() {
+            return Collections.unmodifiableList(rates);
+        }
 
-        public void op(Object o) {
-            op(o.hashCode());
+        /**
+         * The average amount of cores busy with something other than the fork while it ran, 0 if not
+         * on Linux
+         */
+        public double noise() {
+            return noise;
         }
 
-        // Each method given for the primitive
-        // primitive boxing is very expensive at times
-        // otherwise use Object cast as necessary
+        /**
+         * The 1 minute load average when the fork finished, 0 if not on Linux
+         */
+        public double load() {
+            return load;
+        }
 
-        // Please java please inline the constants
-        public void op(int i) {
-            if (i == Integer.MAX_VALUE && i == random) {
-                random = prng(random);
-            }
+        /**
+         * The label of the JVM and flags the result was measured with, "default" without a matrix
+         */
+        public String environment() {
+            return environment;
         }
 
-        // This can't happen because only 0/x will equal 0
-        public void op(float i) {
-            if (i != 0 && i / random == 0) {
-                random = prng(random);
-            }
+        /**
+         * Whether the fork failed to produce a result
+         */
+        public boolean failed() {
+            return failure != null;
         }
 
-        // This works because rounding on integer types
-        // will round. This won't, so having the numerator
-        // equal to zero and equal a quotient of zero isn't
-        // happening
-        public void op(double i) {
-            if (i != 0 && i / random == 0) {
-                random = prng(random);
-            }
+        /**
+         * Why the fork failed, null if it didn't
+         */
+        public String failure() {
+            return failure;
         }
 
-        public void op(char i) {
-            if (i == Character.MAX_VALUE && i == random) {
-                random = prng(random);
-            }
+        /**
+         * The thread dump taken before killing a timed out fork, null if there isn't one
+         */
+        public String dump() {
+            return dump;
         }
 
-        public void op(short i) {
-            if (i == Short.MAX_VALUE && i == random) {
-                random = prng(random);
-            }
+        /**
+         * The summary of the fork's flight recording, null if it wasn't recorded
+         */
+        public String profile() {
+            return profile;
         }
 
-        public void op(long i) {
-            if (i == Long.MAX_VALUE && i == random) {
-                random = prng(random);
-            }
+        /**
+         * The reasons this result is suspicious, empty if it looks fine
+         */
+        public List<String> warnings() {
+            return Collections.unmodifiableList(warnings);
         }
 
-        public void op(byte i) {
-            if (i == Byte.MAX_VALUE && i == random) {
-                random = prng(random);
-            }
+        /**
+         * average time in ns
+         */
+        public double avg() {
+            return avg;
         }
 
-        public void op(boolean i) {
-            if (!i && random == Integer.MAX_VALUE) {
-                random = prng(random);
-            }
+        /**
+         * The name of the benchmark
+         */
+        public String name() {
+            return name;
         }
     }
 
     /**
-     * Extend this class to represent a Unit that has methods which are becnhmarked
+     * Looks through the bytecode of a measured method for work the JIT can remove or fold: results
+     * that are computed and then popped, calls whose inputs are all constants and methods that have
+     * no effect at all
+     *
+     * <p>This is a heuristic over the instruction stream, it doesn't track the stack.</p>
      *
      * @author caojohnny
      */
-    public static class Unit {
-        public StatefulOp op = new StatefulOp();
-        public Runnable setup = NO_OP;
-        public Runnable teardown = NO_OP;
+    static class DceVisitor extends ClassVisitor {
+        private final String method;
+        private final Set<String> suspicions = new LinkedHashSet<>();
+        private boolean empty;
+
+        DceVisitor(String method) {
+            super(Opcodes.ASM5);
+            this.method = method;
+        }
 
         /**
-         * Determines the latency + granularity of nanoTime
-         *
-         * <p>Starts the timer, then sets the stop when the next invocation of nanoTime doesn't equal the start.</p>
-         *
-         * <p>Called internally</p>
-         *
-         * @return an arbitrary number passed to the iteration determination method
+         * Whether the method is nothing but a return
          */
-        public final long nanoAccuracy() {
-            long start = System.nanoTime();
-            long stop;
-
-            while ((stop = System.nanoTime()) == start);
+        boolean isEmpty() {
+            return empty;
+        }
 
-            return stop - start;
+        Collection<String> getSuspicions() {
+            return suspicions;
         }
 
-        /**
-         * Complex method determines the next amount of iterations to run the test iterations
-         *
-         * <p>Nice to play around with, but calling this method won't do anything. Mostly used internally. Please don't proxy it.</p>
-         *
-         * <p>The implementation is described in the source</p>
-         *
-         * @param speculatedTimePerOp the time of the last run per opertion
-         * @param nanoAcc the granularity + latency of the nanoTime method
-         * @param left the amount of runs left
-         * @return the iterations to run next
-         */
-        public final int calcIterations(long speculatedTimePerOp, long nanoAcc, int left) {
-            double timeMustPass = Math.ceil(nanoAcc * 2); // Compensates for fluctuations in
-                                                          // accuracy of nanotime
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            if (!name.equals(method) || !desc.startsWith("()")) return null;
+            boolean returns = Type.getReturnType(desc) != Type.VOID_TYPE;
+
+            return new MethodVisitor(Opcodes.ASM5) {
+                /** Consecutive instructions that pushed a constant */
+                int constants;
+                /** The last instruction left a computed value on the stack */
+                String produced;
+                int instructions;
+                boolean effects;
+
+                private void next(int constant, String value) {
+                    instructions++;
+                    constants = constant == 0 ? 0 : constants + constant;
+                    produced = value;
+                }
 
-            // This could happen if the rounding becomes retarded
-            // resulting in divide by zero error
-            // therefore we must set the minimum at the smallest positive integer
-            if (speculatedTimePerOp == 0) speculatedTimePerOp = 1;
+                @Override
+                public void visitInsn(int opcode) {
+                    if (opcode >= Opcodes.ACONST_NULL && opcode <= Opcodes.DCONST_1) {
+                        next(1, null);
+                    } else if (opcode == Opcodes.POP || opcode == Opcodes.POP2) {
+                        if (produced != null) suspicions.add("result of " + produced + " is discarded");
+                        next(0, null);
+                    } else if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.ARETURN) {
+                        if (constants > 0) suspicions.add("returns a constant");
+                        next(0, null);
+                    } else if (opcode >= Opcodes.IADD && opcode <= Opcodes.LXOR) {
+                        if (constants >= 2) suspicions.add("arithmetic on constants");
+                        next(0, "arithmetic");
+                    } else if (opcode >= Opcodes.IASTORE && opcode <= Opcodes.SASTORE) {
+                        effects = true;
+                        next(0, null);
+                    } else if (opcode == Opcodes.RETURN) {
+                        empty = instructions == 0;
+                        next(0, null);
+                    } else if (opcode == Opcodes.ATHROW || opcode == Opcodes.MONITORENTER) {
+                        effects = true;
+                        next(0, null);
+                    } else {
+                        next(0, null);
+                    }
+                }
 
-            // Avoids rechecking too often
-            // This number must be small enough such that the runs of this test method
-            // will setup/teardown with at least some frequency
-            int shouldDo = 4;
-            if (speculatedTimePerOp < timeMustPass) {
-                // Calculates amount that can be usefully done in the required time
-                // minus one because the increment occurs first
-                int might = (int) Math.ceil(timeMustPass / speculatedTimePerOp) - 1;
+                @Override
+                public void visitIntInsn(int opcode, int operand) {
+                    next(opcode == Opcodes.NEWARRAY ? 0 : 1, null);
+                }
 
-                // If it breaks the minimum, we've got the value
-                if (might > shouldDo) {
-                    shouldDo = might;
+                @Override
+                public void visitLdcInsn(Object cst) {
+                    next(1, null);
                 }
 
-                // Otherwise if it is too small, handle the minimum value
-            }
+                @Override
+                public void visitVarInsn(int opcode, int var) {
+                    next(0, null);
+                }
 
-            // If the amount of repetitions left is less than the current amount
-            // add that too so we can finish evenly
-            // sometimes this will fail... check has been added in the synthetic method
-            if (left > 0) {
-                if (left <= shouldDo) {
-                    shouldDo = left;
+                @Override
+                public void visitIincInsn(int var, int increment) {
+                    next(0, null);
                 }
-            }
 
-            return shouldDo;
-        }
-    }
+                @Override
+                public void visitTypeInsn(int opcode, String type) {
+                    next(0, opcode == Opcodes.INSTANCEOF ? "instanceof" : null);
+                }
 
-    /**
-     * Represents the data collected by the benchmark
-     *
-     * @author caojohnny
-     */
-    public static class Result {
-        // Data
-        private final double avg;
-        private final String name;
+                @Override
+                public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                    if (opcode == Opcodes.PUTFIELD || opcode == Opcodes.PUTSTATIC) effects = true;
+                    next(0, null);
+                }
 
-        private Result(MiniMark benchmark, String name, double data) {
-            this.name = name;
-            this.avg = data;
-        }
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                    effects = true;
+                    int args = Type.getArgumentTypes(desc).length + (opcode == Opcodes.INVOKESTATIC ? 0 : 1);
+                    if (args > 0 && constants >= args && !name.equals("<init>")) {
+                        suspicions.add("constant input to " + Type.getObjectType(owner).getClassName() + "." + name);
+                    }
 
-        public static Result compile(MiniMark benchmark, String name, double data) {
-            return new Result(benchmark, name, data);
-        }
+                    // Instance calls returning a value are usually mutators, e.g. List.add
+                    String call = Type.getObjectType(owner).getClassName() + "." + name;
+                    boolean pure = opcode == Opcodes.INVOKESTATIC && Type.getReturnType(desc) != Type.VOID_TYPE;
+                    next(0, pure ? call : null);
+                }
 
-        public void addValues(Table table, String group) {
-            Row row = table.createRow();
-            row.setColumn(0, group + " - " + name).setColumn(1, BigDecimal.valueOf(avg)
-                    .divide(BigDecimal.ONE, 3, BigDecimal.ROUND_HALF_UP).toString() + " ns");
-        }
+                @Override
+                public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+                    next(0, null);
+                }
 
-        /**
-         * average time in ns
-         */
-        public double avg() {
-            return avg;
-        }
+                @Override
+                public void visitJumpInsn(int opcode, Label label) {
+                    next(0, null);
+                }
 
-        /**
-         * The name of the benchmark
-         */
-        public String name() {
-            return name;
+                @Override
+                public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+                    next(0, null);
+                }
+
+                @Override
+                public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+                    next(0, null);
+                }
+
+                @Override
+                public void visitMultiANewArrayInsn(String desc, int dims) {
+                    next(0, null);
+                }
+
+                @Override
+                public void visitEnd() {
+                    // A returned value is consumed by the invoker, a void method has to leave a trace
+                    if (!returns && !effects && !empty) suspicions.add("has no side effects");
+                }
+            };
         }
     }
 
@@ -995,7 +6750,7 @@ public class MiniMark {
         }
 
         public DependencyVisitor() {
-            super(Opcodes.ASM4);
+            super(Opcodes.ASM5);
         }
 
         // ClassVisitor
@@ -1071,7 +6826,7 @@ public class MiniMark {
         class AnnotationDependencyVisitor extends AnnotationVisitor {
 
             public AnnotationDependencyVisitor() {
-                super(Opcodes.ASM4);
+                super(Opcodes.ASM5);
             }
 
             @Override
@@ -1108,7 +6863,7 @@ public class MiniMark {
         class FieldDependencyVisitor extends FieldVisitor {
 
             public FieldDependencyVisitor() {
-                super(Opcodes.ASM4);
+                super(Opcodes.ASM5);
             }
 
             @Override
@@ -1121,7 +6876,7 @@ public class MiniMark {
         class MethodDependencyVisitor extends MethodVisitor {
 
             public MethodDependencyVisitor() {
-                super(Opcodes.ASM4);
+                super(Opcodes.ASM5);
             }
 
             @Override
@@ -1169,7 +6924,8 @@ public class MiniMark {
                     final int opcode,
                     final String owner,
                     final String name,
-                    final String desc)
+                    final String desc,
+                    final boolean itf)
             {
                 addInternalName(owner);
                 addMethodDesc(desc);
@@ -1229,7 +6985,7 @@ public class MiniMark {
             String signatureClassName;
 
             public SignatureDependencyVisitor() {
-                super(Opcodes.ASM4);
+                super(Opcodes.ASM5);
             }
 
             @Override
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.collections;
+
+import com.gmail.woodyc40.minimark.MiniMark;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Runs the map, list and queue benchmarks of every structure at every size, once for each of the
+ * {@link Keys}, after printing how much memory each structure takes per element
+ *
+ * <p>The whole suite runs for a long time, pass a regex to only run the benchmarks it matches,
+ * e.g. {@code "maps, skewed.*get"}.</p>
+ */
+public class CollectionsSuite {
+    /** The elements each structure holds when measuring its footprint */
+    private static final int FOOTPRINT = 1 << 18;
+    /** Keeps the structure being measured reachable */
+    private static volatile Object retained;
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : null;
+        printFootprints();
+
+        for (Keys keys : Keys.values()) {
+            String name = keys.name().toLowerCase();
+            suite(filter)
+                    .group("maps, " + name + " keys").perform(new MapBenchmark())
+                    .group("lists, " + name + " keys").perform(new ListBenchmark())
+                    .run("-D" + Keys.PROPERTY + "=" + keys.name());
+        }
+        suite(filter).group("queues").perform(new QueueBenchmark()).run();
+    }
+
+    private static MiniMark suite(String filter) {
+        return new MiniMark()
+                .setMeasurementTime(1, TimeUnit.SECONDS)
+                .setWarmForks(2)
+                .filter(filter);
+    }
+
+    private static void printFootprints() {
+        int[] keys = Keys.UNIFORM.keys(FOOTPRINT);
+        System.out.printf("Footprint of %d elements, bytes per element:%n", FOOTPRINT);
+        System.out.printf("  %-26s %8s %8s%n", "", "heap", "off-heap");
+        printFootprint("HashMap<Integer, Integer>", n -> {
+            HashMap<Integer, Integer> map = new HashMap<>();
+            for (int i = 0; i < n; i++) map.put(keys[i], keys[i]);
+            return map;
+        });
+        printFootprint("IntIntMap", n -> {
+            IntIntMap map = new IntIntMap(n);
+            for (int i = 0; i < n; i++) map.put(keys[i], keys[i]);
+            return map;
+        });
+        printFootprint("OffHeapIntIntMap", n -> {
+            OffHeapIntIntMap map = new OffHeapIntIntMap(n);
+            for (int i = 0; i < n; i++) map.put(keys[i], keys[i]);
+            return map;
+        });
+        printFootprint("ArrayList<Integer>", n -> {
+            ArrayList<Integer> list = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) list.add(keys[i]);
+            return list;
+        });
+        printFootprint("IntList", n -> {
+            IntList list = new IntList(n);
+            for (int i = 0; i < n; i++) list.add(keys[i]);
+            return list;
+        });
+        printFootprint("OffHeapIntList", n -> {
+            OffHeapIntList list = new OffHeapIntList(n);
+            for (int i = 0; i < n; i++) list.add(keys[i]);
+            return list;
+        });
+        printFootprint("ArrayDeque<Integer>", n -> {
+            ArrayDeque<Integer> queue = new ArrayDeque<>(n);
+            for (int i = 0; i < n; i++) queue.offer(keys[i]);
+            return queue;
+        });
+        printFootprint("IntQueue", n -> {
+            IntQueue queue = new IntQueue(n);
+            for (int i = 0; i < n; i++) queue.offer(keys[i]);
+            return queue;
+        });
+        printFootprint("OffHeapIntQueue", n -> {
+            OffHeapIntQueue queue = new OffHeapIntQueue(n);
+            for (int i = 0; i < n; i++) queue.offer(keys[i]);
+            return queue;
+        });
+        System.out.println();
+    }
+
+    /**
+     * Prints the heap the structure frees when it is dropped and the growth of the direct buffers
+     * from building it, the heap is only approximate since it is as settled as a few full GCs
+     * make it
+     */
+    private static void printFootprint(String name, IntFunction<Object> build) {
+        long direct = directUsed();
+        retained = build.apply(FOOTPRINT);
+        long directUsed = directUsed() - direct;
+        long heapUsed = heapUsed();
+        retained = null;
+        heapUsed -= heapUsed();
+
+        System.out.printf("  %-26s %8.1f %8.1f%n", name,
+                (double) heapUsed / FOOTPRINT, (double) directUsed / FOOTPRINT);
+    }
+
+    private static long heapUsed() {
+        // Until a full GC frees nothing more
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            if (now >= used) break;
+            used = now;
+        }
+        return used;
+    }
+
+    private static long directUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) return pool.getMemoryUsed();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.collections;
+
+/**
+ * A map of int keys to int values without boxing, kept in two arrays with open addressing and
+ * linear probing
+ *
+ * <p>0 marks a free slot in the table, so the value of key 0 is kept beside it.</p>
+ */
+public final class IntIntMap {
+    private static final int FREE = 0;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasFree;
+    private int freeValue;
+
+    /**
+     * Creates a map that holds the given amount of entries without growing
+     *
+     * @param expected the entries
+     */
+    public IntIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(1, expected) * 2 - 1) * 2;
+        this.keys = new int[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Gets the value of a key
+     *
+     * @param key the key
+     * @param missing the value to return if the key isn't in the map
+     * @return the value
+     */
+    public int get(int key, int missing) {
+        if (key == FREE) return this.hasFree ? this.freeValue : missing;
+        for (int slot = slot(key, this.mask); ; slot = (slot + 1) & this.mask) {
+            int k = this.keys[slot];
+            if (k == key) return this.values[slot];
+            if (k == FREE) return missing;
+        }
+    }
+
+    /**
+     * Sets the value of a key
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(int key, int value) {
+        if (key == FREE) {
+            if (!this.hasFree) this.size++;
+            this.hasFree = true;
+            this.freeValue = value;
+            return;
+        }
+
+        int slot = slot(key, this.mask);
+        for (int k; (k = this.keys[slot]) != FREE; slot = (slot + 1) & this.mask) {
+            if (k == key) {
+                this.values[slot] = value;
+                return;
+            }
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        // Kept at most half full
+        if (++this.size > this.keys.length / 2) grow();
+    }
+
+    /**
+     * Removes a key
+     *
+     * @param key the key
+     * @return whether the key was in the map
+     */
+    public boolean remove(int key) {
+        if (key == FREE) {
+            boolean had = this.hasFree;
+            if (had) this.size--;
+            this.hasFree = false;
+            return had;
+        }
+
+        for (int slot = slot(key, this.mask); ; slot = (slot + 1) & this.mask) {
+            int k = this.keys[slot];
+            if (k == FREE) return false;
+            if (k == key) {
+                shift(slot);
+                this.size--;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Fills the freed slot with the entries after it that probed past it, so lookups never stop
+     * early and no tombstones are needed
+     */
+    private void shift(int gap) {
+        for (int slot = (gap + 1) & this.mask; ; slot = (slot + 1) & this.mask) {
+            int k = this.keys[slot];
+            if (k == FREE) {
+                this.keys[gap] = FREE;
+                return;
+            }
+            int home = slot(k, this.mask);
+            if (((slot - home) & this.mask) >= ((slot - gap) & this.mask)) {
+                this.keys[gap] = k;
+                this.values[gap] = this.values[slot];
+                gap = slot;
+            }
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.keys = new int[oldKeys.length * 2];
+        this.values = new int[oldKeys.length * 2];
+        this.mask = this.keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            int k = oldKeys[i];
+            if (k == FREE) continue;
+            int slot = slot(k, this.mask);
+            while (this.keys[slot] != FREE) slot = (slot + 1) & this.mask;
+            this.keys[slot] = k;
+            this.values[slot] = oldValues[i];
+        }
+    }
+
+    /**
+     * Finds the next entry of the table, which doesn't include key 0
+     *
+     * @param slot the slot to search after, -1 to start at the beginning
+     * @return the slot of the next entry, -1 if there is none
+     */
+    public int next(int slot) {
+        for (int i = slot + 1; i < this.keys.length; i++) {
+            if (this.keys[i] != FREE) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The value in a slot found by {@link #next(int)}
+     *
+     * @param slot the slot
+     * @return the value
+     */
+    public int valueAt(int slot) {
+        return this.values[slot];
+    }
+
+    /**
+     * The amount of entries
+     *
+     * @return the entries
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.woodyc40.minimark.collections;
+
+import java.util.Random;
+
+/**
+ * How the keys of a collection are spread and the order they are accessed in
+ *
+ * <p>The forks of a run read it from the {@value #PROPERTY} property, so each run of the suite
+ * can use different keys with the same units.</p>
+ */
+public enum Keys {
+    /** Keys 0 to n - 1, accessed in order */
+    SEQUENTIAL,
+    /** Scattered keys, accessed uniformly at random */
+    UNIFORM,
+    /** Scattered keys, where a few hot keys get most of the accesses */
+    SKEWED;
+
+    /** The property naming the keys of the run */
+    public static final String PROPERTY = "collections.keys";
+    /** The same keys in every fork */
+    private static final long SEED = 0xFFD5L;
+
+    /**
+     * The keys of the current run
+     *
+     * @return the keys named by {@value #PROPERTY}, uniform if it isn't set
+     */
+    public static Keys current() {
+        return valueOf(System.getProperty(PROPERTY, UNIFORM.name()));
+    }
+
+    /**
+     * The distinct keys to fill a collection with
+     *
+     * @param n the amount of keys
+     * @return the keys
+     */
+    public int[] keys(int n) {
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            // A bijection, so scattered keys never repeat
+            int h = i * 0x9E3779B9;
+            keys[i] = this == SEQUENTIAL ? i : h ^ (h >>> 16);
+        }
+        return keys;
+    }
+
+    /**
+     * The order to access the elements of a collection in, as a sequence that is walked round and
+     * round
+     *
+     * @param n the amount of elements
+     * @return the indices of the elements, the length is a power of two
+     */
+    public int[] order(int n) {
+        int[] order = new int[Integer.highestOneBit(Math.max(1, n) * 2 - 1)];
+        Random random = new Random(SEED);
+        for (int i = 0; i < order.length; i++) {
+            switch (this) {
+                case SEQUENTIAL:
+                    order[i] = i % n;
+                    break;
+                case UNIFORM:
+                    order[i] = random.nextInt(n);
+                    break;
+                default:
+                    // The first 10% of the elements get close to half of the accesses
+                    double u = random.nextDouble();
+                    order[i] = (int) (n * u * u * u);
+            }
+        }
+        return order;
+    }
+}
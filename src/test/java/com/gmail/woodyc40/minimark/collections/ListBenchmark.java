@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.collections;
+
+import com.gmail.woodyc40.minimark.MiniMark;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Gets, sets, removes and iterates the elements of a boxed {@link ArrayList}, an {@link IntList}
+ * and an {@link OffHeapIntList} holding the same elements
+ */
+public class ListBenchmark extends MiniMark.Unit {
+    /** 4 bytes per element, not counting the overhead of each list */
+    @MiniMark.Sweep(from = 16 << 10, to = 4 << 20) long bytes;
+
+    private final Keys distribution = Keys.current();
+    private int[] elements;
+    private int[] order;
+    private int cursor;
+
+    private ArrayList<Integer> arrayList;
+    private IntList intList;
+    private OffHeapIntList offHeap;
+
+    private Iterator<Integer> arrayListIterator;
+    private int intListIndex;
+    private int offHeapIndex;
+
+    {
+        setup = () -> {
+            int size = (int) (this.bytes / 4);
+            if (this.elements != null && this.elements.length == size) return;
+
+            this.elements = this.distribution.keys(size);
+            this.order = this.distribution.order(size);
+            this.arrayList = new ArrayList<>(size);
+            this.intList = new IntList(size);
+            this.offHeap = new OffHeapIntList(size);
+            for (int element : this.elements) {
+                this.arrayList.add(element);
+                this.intList.add(element);
+                this.offHeap.add(element);
+            }
+            this.arrayListIterator = this.arrayList.iterator();
+        };
+    }
+
+    private int next() {
+        return this.order[this.cursor++ & (this.order.length - 1)];
+    }
+
+    @MiniMark.Measure public Integer getArrayList() {
+        return this.arrayList.get(next());
+    }
+
+    @MiniMark.Measure public int getIntList() {
+        return this.intList.get(next());
+    }
+
+    @MiniMark.Measure public int getOffHeap() {
+        return this.offHeap.get(next());
+    }
+
+    @MiniMark.Measure public Integer setArrayList() {
+        int index = next();
+        return this.arrayList.set(index, this.elements[index]);
+    }
+
+    @MiniMark.Measure public int setIntList() {
+        int index = next();
+        return this.intList.set(index, this.elements[index]);
+    }
+
+    @MiniMark.Measure public int setOffHeap() {
+        int index = next();
+        return this.offHeap.set(index, this.elements[index]);
+    }
+
+    // Removes the last element and appends it back, the only removal that doesn't copy
+
+    @MiniMark.Measure public Integer removeArrayList() {
+        Integer element = this.arrayList.remove(this.arrayList.size() - 1);
+        this.arrayList.add(element);
+        return element;
+    }
+
+    @MiniMark.Measure public int removeIntList() {
+        int element = this.intList.removeLast();
+        this.intList.add(element);
+        return element;
+    }
+
+    @MiniMark.Measure public int removeOffHeap() {
+        int element = this.offHeap.removeLast();
+        this.offHeap.add(element);
+        return element;
+    }
+
+    // One element per op, starting over at the end
+
+    @MiniMark.Measure public Integer iterateArrayList() {
+        if (!this.arrayListIterator.hasNext()) this.arrayListIterator = this.arrayList.iterator();
+        return this.arrayListIterator.next();
+    }
+
+    @MiniMark.Measure public int iterateIntList() {
+        if (this.intListIndex == this.intList.size()) this.intListIndex = 0;
+        return this.intList.get(this.intListIndex++);
+    }
+
+    @MiniMark.Measure public int iterateOffHeap() {
+        if (this.offHeapIndex == this.offHeap.size()) this.offHeapIndex = 0;
+        return this.offHeap.get(this.offHeapIndex++);
+    }
+}
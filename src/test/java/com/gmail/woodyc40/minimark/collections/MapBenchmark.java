@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.collections;
+
+import com.gmail.woodyc40.minimark.MiniMark;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Gets, puts, removes and iterates the entries of a boxed {@link HashMap}, an {@link IntIntMap}
+ * and an {@link OffHeapIntIntMap} holding the same keys
+ */
+public class MapBenchmark extends MiniMark.Unit {
+    /** 8 bytes of key and value per entry, not counting the overhead of each map */
+    @MiniMark.Sweep(from = 16 << 10, to = 4 << 20) long bytes;
+
+    private final Keys distribution = Keys.current();
+    private int[] keys;
+    private int[] order;
+    private int cursor;
+
+    private HashMap<Integer, Integer> hashMap;
+    private IntIntMap intIntMap;
+    private OffHeapIntIntMap offHeap;
+
+    private Iterator<Integer> hashMapIterator;
+    private int intIntMapSlot = -1;
+    private int offHeapSlot = -1;
+
+    {
+        setup = () -> {
+            int entries = (int) (this.bytes / 8);
+            if (this.keys != null && this.keys.length == entries) return;
+
+            this.keys = this.distribution.keys(entries);
+            this.order = this.distribution.order(entries);
+            this.hashMap = new HashMap<>();
+            this.intIntMap = new IntIntMap(entries);
+            this.offHeap = new OffHeapIntIntMap(entries);
+            for (int key : this.keys) {
+                this.hashMap.put(key, key);
+                this.intIntMap.put(key, key);
+                this.offHeap.put(key, key);
+            }
+            this.hashMapIterator = this.hashMap.values().iterator();
+        };
+    }
+
+    private int next() {
+        return this.keys[this.order[this.cursor++ & (this.order.length - 1)]];
+    }
+
+    @MiniMark.Measure public Integer getHashMap() {
+        return this.hashMap.get(next());
+    }
+
+    @MiniMark.Measure public int getIntIntMap() {
+        return this.intIntMap.get(next(), -1);
+    }
+
+    @MiniMark.Measure public int getOffHeap() {
+        return this.offHeap.get(next(), -1);
+    }
+
+    @MiniMark.Measure public Integer putHashMap() {
+        int key = next();
+        return this.hashMap.put(key, key);
+    }
+
+    @MiniMark.Measure public int putIntIntMap() {
+        int key = next();
+        this.intIntMap.put(key, key);
+        return key;
+    }
+
+    @MiniMark.Measure public int putOffHeap() {
+        int key = next();
+        this.offHeap.put(key, key);
+        return key;
+    }
+
+    // Puts the key back so the size stays the same
+
+    @MiniMark.Measure public Integer removeHashMap() {
+        int key = next();
+        Integer value = this.hashMap.remove(key);
+        this.hashMap.put(key, value);
+        return value;
+    }
+
+    @MiniMark.Measure public boolean removeIntIntMap() {
+        int key = next();
+        boolean removed = this.intIntMap.remove(key);
+        this.intIntMap.put(key, key);
+        return removed;
+    }
+
+    @MiniMark.Measure public boolean removeOffHeap() {
+        int key = next();
+        boolean removed = this.offHeap.remove(key);
+        this.offHeap.put(key, key);
+        return removed;
+    }
+
+    // One entry per op, starting over at the end
+
+    @MiniMark.Measure public Integer iterateHashMap() {
+        if (!this.hashMapIterator.hasNext()) this.hashMapIterator = this.hashMap.values().iterator();
+        return this.hashMapIterator.next();
+    }
+
+    @MiniMark.Measure public int iterateIntIntMap() {
+        int slot = this.intIntMap.next(this.intIntMapSlot);
+        if (slot < 0) slot = this.intIntMap.next(-1);
+        this.intIntMapSlot = slot;
+        return this.intIntMap.valueAt(slot);
+    }
+
+    @MiniMark.Measure public int iterateOffHeap() {
+        int slot = this.offHeap.next(this.offHeapSlot);
+        if (slot < 0) slot = this.offHeap.next(-1);
+        this.offHeapSlot = slot;
+        return this.offHeap.valueAt(slot);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.collections;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link IntIntMap} kept off the heap in a direct buffer, each slot a key followed by its value
+ */
+public final class OffHeapIntIntMap {
+    private static final int FREE = 0;
+    private static final int SLOT = 8;
+
+    private ByteBuffer table;
+    private int mask;
+    private int size;
+    private boolean hasFree;
+    private int freeValue;
+
+    /**
+     * Creates a map that holds the given amount of entries without growing
+     *
+     * @param expected the entries
+     */
+    public OffHeapIntIntMap(int expected) {
+        allocate(Integer.highestOneBit(Math.max(1, expected) * 2 - 1) * 2);
+    }
+
+    private void allocate(int capacity) {
+        this.table = ByteBuffer.allocateDirect(capacity * SLOT).order(ByteOrder.nativeOrder());
+        this.mask = capacity - 1;
+    }
+
+    private int key(int slot) {
+        return this.table.getInt(slot * SLOT);
+    }
+
+    private int value(int slot) {
+        return this.table.getInt(slot * SLOT + 4);
+    }
+
+    private void set(int slot, int key, int value) {
+        this.table.putInt(slot * SLOT, key);
+        this.table.putInt(slot * SLOT + 4, value);
+    }
+
+    /**
+     * Gets the value of a key
+     *
+     * @param key the key
+     * @param missing the value to return if the key isn't in the map
+     * @return the value
+     */
+    public int get(int key, int missing) {
+        if (key == FREE) return this.hasFree ? this.freeValue : missing;
+        for (int slot = IntIntMap.slot(key, this.mask); ; slot = (slot + 1) & this.mask) {
+            int k = key(slot);
+            if (k == key) return value(slot);
+            if (k == FREE) return missing;
+        }
+    }
+
+    /**
+     * Sets the value of a key
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(int key, int value) {
+        if (key == FREE) {
+            if (!this.hasFree) this.size++;
+            this.hasFree = true;
+            this.freeValue = value;
+            return;
+        }
+
+        int slot = IntIntMap.slot(key, this.mask);
+        for (int k; (k = key(slot)) != FREE; slot = (slot + 1) & this.mask) {
+            if (k == key) {
+                this.table.putInt(slot * SLOT + 4, value);
+                return;
+            }
+        }
+        set(slot, key, value);
+        if (++this.size > (this.mask + 1) / 2) grow();
+    }
+
+    /**
+     * Removes a key
+     *
+     * @param key the key
+     * @return whether the key was in the map
+     */
+    public boolean remove(int key) {
+        if (key == FREE) {
+            boolean had = this.hasFree;
+            if (had) this.size--;
+            this.hasFree = false;
+            return had;
+        }
+
+        for (int slot = IntIntMap.slot(key, this.mask); ; slot = (slot + 1) & this.mask) {
+            int k = key(slot);
+            if (k == FREE) return false;
+            if (k == key) {
+                shift(slot);
+                this.size--;
+                return true;
+            }
+        }
+    }
+
+    /** The backward shift of {@link IntIntMap} */
+    private void shift(int gap) {
+        for (int slot = (gap + 1) & this.mask; ; slot = (slot + 1) & this.mask) {
+            int k = key(slot);
+            if (k == FREE) {
+                this.table.putInt(gap * SLOT, FREE);
+                return;
+            }
+            int home = IntIntMap.slot(k, this.mask);
+            if (((slot - home) & this.mask) >= ((slot - gap) & this.mask)) {
+                set(gap, k, value(slot));
+                gap = slot;
+            }
+        }
+    }
+
+    private void grow() {
+        ByteBuffer old = this.table;
+        int capacity = this.mask + 1;
+        allocate(capacity * 2);
+        for (int i = 0; i < capacity; i++) {
+            int k = old.getInt(i * SLOT);
+            if (k == FREE) continue;
+            int slot = IntIntMap.slot(k, this.mask);
+            while (key(slot) != FREE) slot = (slot + 1) & this.mask;
+            set(slot, k, old.getInt(i * SLOT + 4));
+        }
+    }
+
+    /**
+     * Finds the next entry of the table, which doesn't include key 0
+     *
+     * @param slot the slot to search after, -1 to start at the beginning
+     * @return the slot of the next entry, -1 if there is none
+     */
+    public int next(int slot) {
+        for (int i = slot + 1; i <= this.mask; i++) {
+            if (key(i) != FREE) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The value in a slot found by {@link #next(int)}
+     *
+     * @param slot the slot
+     * @return the value
+     */
+    public int valueAt(int slot) {
+        return value(slot);
+    }
+
+    /**
+     * The amount of entries
+     *
+     * @return the entries
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.collections;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * {@link IntList} kept off the heap in a direct buffer
+ */
+public final class OffHeapIntList {
+    private IntBuffer elements;
+    private int size;
+
+    /**
+     * Creates a list that holds the given amount of elements without growing
+     *
+     * @param capacity the elements
+     */
+    public OffHeapIntList(int capacity) {
+        this.elements = allocate(Math.max(1, capacity));
+    }
+
+    static IntBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Appends an element
+     *
+     * @param element the element
+     */
+    public void add(int element) {
+        if (this.size == this.elements.capacity()) {
+            IntBuffer grown = allocate(this.size * 2);
+            this.elements.rewind();
+            grown.put(this.elements);
+            this.elements = grown;
+        }
+        this.elements.put(this.size++, element);
+    }
+
+    /**
+     * Gets an element
+     *
+     * @param index the index of the element
+     * @return the element
+     */
+    public int get(int index) {
+        if (index >= this.size) throw new IndexOutOfBoundsException(String.valueOf(index));
+        return this.elements.get(index);
+    }
+
+    /**
+     * Replaces an element
+     *
+     * @param index the index of the element
+     * @param element the new element
+     * @return the old element
+     */
+    public int set(int index, int element) {
+        int old = get(index);
+        this.elements.put(index, element);
+        return old;
+    }
+
+    /**
+     * Removes the last element
+     *
+     * @return the element
+     */
+    public int removeLast() {
+        if (this.size == 0) throw new IndexOutOfBoundsException("Empty");
+        return this.elements.get(--this.size);
+    }
+
+    /**
+     * The amount of elements
+     *
+     * @return the elements
+     */
+    public int size() {
+        return this.size;
+    }
+}
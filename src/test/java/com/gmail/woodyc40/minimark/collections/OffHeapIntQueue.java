@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.collections;
+
+import java.nio.IntBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link IntQueue} kept off the heap in a direct buffer
+ */
+public final class OffHeapIntQueue {
+    private IntBuffer elements;
+    private int mask;
+    private int head;
+    private int size;
+
+    /**
+     * Creates a queue that holds the given amount of elements without growing
+     *
+     * @param capacity the elements
+     */
+    public OffHeapIntQueue(int capacity) {
+        this.elements = OffHeapIntList.allocate(Integer.highestOneBit(Math.max(1, capacity) * 2 - 1));
+        this.mask = this.elements.capacity() - 1;
+    }
+
+    /**
+     * Adds an element to the tail
+     *
+     * @param element the element
+     */
+    public void offer(int element) {
+        if (this.size == this.mask + 1) {
+            IntBuffer grown = OffHeapIntList.allocate(this.size * 2);
+            for (int i = 0; i < this.size; i++) grown.put(i, get(i));
+            this.elements = grown;
+            this.mask = grown.capacity() - 1;
+            this.head = 0;
+        }
+        this.elements.put((this.head + this.size++) & this.mask, element);
+    }
+
+    /**
+     * Removes the element at the head
+     *
+     * @return the element
+     */
+    public int poll() {
+        if (this.size == 0) throw new NoSuchElementException();
+        int element = this.elements.get(this.head);
+        this.head = (this.head + 1) & this.mask;
+        this.size--;
+        return element;
+    }
+
+    /**
+     * Gets an element without removing it
+     *
+     * @param index the place of the element counting from the head
+     * @return the element
+     */
+    public int get(int index) {
+        return this.elements.get((this.head + index) & this.mask);
+    }
+
+    /**
+     * The amount of elements
+     *
+     * @return the elements
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.collections;
+
+import com.gmail.woodyc40.minimark.MiniMark;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Moves elements through and iterates a boxed {@link ArrayDeque}, an {@link IntQueue} and an
+ * {@link OffHeapIntQueue} holding the same elements
+ *
+ * <p>Queues are only accessed at their ends, so the {@link Keys} of the run don't apply.</p>
+ */
+public class QueueBenchmark extends MiniMark.Unit {
+    /** 4 bytes per element, not counting the overhead of each queue */
+    @MiniMark.Sweep(from = 16 << 10, to = 4 << 20) long bytes;
+
+    private int size = -1;
+    private ArrayDeque<Integer> arrayDeque;
+    private IntQueue intQueue;
+    private OffHeapIntQueue offHeap;
+
+    private Iterator<Integer> arrayDequeIterator;
+    private int intQueueIndex;
+    private int offHeapIndex;
+
+    {
+        setup = () -> {
+            int size = (int) (this.bytes / 4);
+            if (this.size == size) return;
+
+            int[] elements = Keys.UNIFORM.keys(size);
+            this.size = size;
+            this.arrayDeque = new ArrayDeque<>(size);
+            this.intQueue = new IntQueue(size);
+            this.offHeap = new OffHeapIntQueue(size);
+            for (int element : elements) {
+                this.arrayDeque.offer(element);
+                this.intQueue.offer(element);
+                this.offHeap.offer(element);
+            }
+            this.arrayDequeIterator = this.arrayDeque.iterator();
+        };
+    }
+
+    // Polls the head and offers it back to the tail, so the size stays the same
+
+    @MiniMark.Measure public Integer offerPollArrayDeque() {
+        Integer element = this.arrayDeque.poll();
+        this.arrayDeque.offer(element);
+        return element;
+    }
+
+    @MiniMark.Measure public int offerPollIntQueue() {
+        int element = this.intQueue.poll();
+        this.intQueue.offer(element);
+        return element;
+    }
+
+    @MiniMark.Measure public int offerPollOffHeap() {
+        int element = this.offHeap.poll();
+        this.offHeap.offer(element);
+        return element;
+    }
+
+    // One element per op, starting over at the end
+
+    @MiniMark.Measure public Integer iterateArrayDeque() {
+        if (!this.arrayDequeIterator.hasNext()) this.arrayDequeIterator = this.arrayDeque.iterator();
+        return this.arrayDequeIterator.next();
+    }
+
+    @MiniMark.Measure public int iterateIntQueue() {
+        if (this.intQueueIndex == this.intQueue.size()) this.intQueueIndex = 0;
+        return this.intQueue.get(this.intQueueIndex++);
+    }
+
+    @MiniMark.Measure public int iterateOffHeap() {
+        if (this.offHeapIndex == this.offHeap.size()) this.offHeapIndex = 0;
+        return this.offHeap.get(this.offHeapIndex++);
+    }
+}
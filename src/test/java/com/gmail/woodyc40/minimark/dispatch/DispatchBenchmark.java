@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.dispatch;
+
+import com.gmail.woodyc40.minimark.MiniMark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Calls the same handlers through each dispatch mechanism, going round the receivers so every
+ * call site sees the {@link Morphism} of the run
+ */
+public class DispatchBenchmark extends MiniMark.Unit {
+    /** A power of two so the index can wrap with a mask */
+    private static final int RECEIVERS = 1024;
+    private static final Method METHOD;
+    private static final MethodHandle HANDLE;
+
+    static {
+        try {
+            METHOD = Handler.class.getMethod("handle", int.class);
+            METHOD.setAccessible(true);
+            HANDLE = MethodHandles.lookup().findVirtual(Handler.class, "handle",
+                    MethodType.methodType(int.class, int.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Handler[] receivers = Morphism.current().receivers(RECEIVERS);
+    private final IntUnaryOperator[] lambdas = Dispatchers.lambdas(this.receivers);
+    private final IntUnaryOperator[] generated = Dispatchers.generated(this.receivers);
+    /** Not a constant, so the JIT can't see which method it calls */
+    private MethodHandle handle = HANDLE;
+    private int event;
+
+    private int next() {
+        return this.event++ & (RECEIVERS - 1);
+    }
+
+    @MiniMark.Measure public void control() {
+    }
+
+    @MiniMark.Measure public int direct() {
+        int i = next();
+        return this.receivers[i].handle(i);
+    }
+
+    @MiniMark.Measure public Object reflection() {
+        int i = next();
+        try {
+            return METHOD.invoke(this.receivers[i], i);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @MiniMark.Measure public int constantHandle() {
+        int i = next();
+        try {
+            return (int) HANDLE.invokeExact(this.receivers[i], i);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @MiniMark.Measure public int fieldHandle() {
+        int i = next();
+        try {
+            return (int) this.handle.invokeExact(this.receivers[i], i);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @MiniMark.Measure public int lambda() {
+        int i = next();
+        return this.lambdas[i].applyAsInt(i);
+    }
+
+    @MiniMark.Measure public int generated() {
+        int i = next();
+        return this.generated[i].applyAsInt(i);
+    }
+}
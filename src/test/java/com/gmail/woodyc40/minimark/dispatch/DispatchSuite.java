@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.dispatch;
+
+import com.gmail.woodyc40.minimark.MiniMark;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the dispatch benchmark once for each {@link Morphism}
+ *
+ * <p>Pass a regex to only run the benchmarks it matches, e.g. {@code "megamorphic.*Handle"}.</p>
+ */
+public class DispatchSuite {
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : null;
+        for (Morphism morphism : Morphism.values()) {
+            new MiniMark()
+                    .setMeasurementTime(1, TimeUnit.SECONDS)
+                    .setWarmForks(2)
+                    .filter(filter)
+                    .group("dispatch, " + morphism.name().toLowerCase())
+                    .perform(new DispatchBenchmark())
+                    .run("-D" + Morphism.PROPERTY + "=" + morphism.name());
+        }
+    }
+}
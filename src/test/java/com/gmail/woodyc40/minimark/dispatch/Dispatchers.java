@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.dispatch;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Binds handlers to {@link IntUnaryOperator}s the way plugin frameworks do, with one class per
+ * handler type that calls it directly
+ */
+final class Dispatchers {
+    private static final MethodType HANDLE = MethodType.methodType(int.class, int.class);
+
+    private Dispatchers() {
+    }
+
+    /**
+     * Binds each handler with a lambda spun by {@link LambdaMetafactory} for its type
+     *
+     * @param receivers the handlers
+     * @return the lambdas
+     */
+    static IntUnaryOperator[] lambdas(Handler[] receivers) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Map<Class<?>, MethodHandle> factories = new HashMap<>();
+        IntUnaryOperator[] lambdas = new IntUnaryOperator[receivers.length];
+        try {
+            for (int i = 0; i < receivers.length; i++) {
+                Class<?> type = receivers[i].getClass();
+                MethodHandle factory = factories.get(type);
+                if (factory == null) {
+                    factory = LambdaMetafactory.metafactory(lookup, "applyAsInt",
+                            MethodType.methodType(IntUnaryOperator.class, type), HANDLE,
+                            lookup.findVirtual(type, "handle", HANDLE), HANDLE).getTarget();
+                    factories.put(type, factory);
+                }
+                lambdas[i] = (IntUnaryOperator) factory.invoke(receivers[i]);
+            }
+        } catch (Throwable t) {
+            throw new IllegalStateException("Cannot spin the lambdas", t);
+        }
+        return lambdas;
+    }
+
+    /**
+     * Binds each handler with a class generated by javassist for its type
+     *
+     * @param receivers the handlers
+     * @return the generated dispatchers
+     */
+    static IntUnaryOperator[] generated(Handler[] receivers) {
+        ClassPool classPool = new ClassPool(true);
+        classPool.appendClassPath(new LoaderClassPath(Handler.class.getClassLoader()));
+        Loader loader = new Loader();
+        Map<Class<?>, Class<?>> classes = new HashMap<>();
+        IntUnaryOperator[] generated = new IntUnaryOperator[receivers.length];
+        try {
+            for (int i = 0; i < receivers.length; i++) {
+                Class<?> type = receivers[i].getClass();
+                Class<?> dispatcher = classes.get(type);
+                if (dispatcher == null) {
+                    CtClass cls = classPool.makeClass(type.getName() + "_Dispatcher");
+                    cls.addInterface(classPool.get(IntUnaryOperator.class.getName()));
+                    cls.addField(CtField.make("private final " + type.getName() + " target;", cls));
+                    cls.addConstructor(CtNewConstructor.make(new CtClass[] { classPool.get(Handler.class.getName()) },
+                            new CtClass[0], "{ this.target = (" + type.getName() + ") $1; }", cls));
+                    cls.addMethod(CtNewMethod.make("public int applyAsInt(int event) { return this.target.handle(event); }", cls));
+
+                    dispatcher = loader.define(cls.toBytecode());
+                    classes.put(type, dispatcher);
+                }
+                generated[i] = (IntUnaryOperator) dispatcher.getConstructor(Handler.class).newInstance(receivers[i]);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot generate the dispatchers", e);
+        }
+        return generated;
+    }
+
+    /** Defines the generated classes, which only use public types of the suite */
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(Handler.class.getClassLoader());
+        }
+
+        Class<?> define(byte[] bytecode) {
+            return defineClass(null, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.dispatch;
+
+/**
+ * An event handler of a plugin, with one implementation for each of the receiver types a call site
+ * can see
+ */
+public interface Handler {
+    /** The amount of implementations */
+    int TYPES = 8;
+
+    /**
+     * Handles an event
+     *
+     * @param event the event
+     * @return a result so the call can't be removed
+     */
+    int handle(int event);
+
+    /**
+     * Creates a handler of the given type
+     *
+     * @param type the type, from 0 to {@link #TYPES}
+     * @return the handler
+     */
+    static Handler create(int type) {
+        switch (type) {
+            case 0: return new Handler0();
+            case 1: return new Handler1();
+            case 2: return new Handler2();
+            case 3: return new Handler3();
+            case 4: return new Handler4();
+            case 5: return new Handler5();
+            case 6: return new Handler6();
+            case 7: return new Handler7();
+            default: throw new IllegalArgumentException("No handler type " + type);
+        }
+    }
+
+    final class Handler0 implements Handler {
+        @Override public int handle(int event) {
+            return event + 1;
+        }
+    }
+
+    final class Handler1 implements Handler {
+        @Override public int handle(int event) {
+            return event - 1;
+        }
+    }
+
+    final class Handler2 implements Handler {
+        @Override public int handle(int event) {
+            return event ^ 2;
+        }
+    }
+
+    final class Handler3 implements Handler {
+        @Override public int handle(int event) {
+            return event << 1;
+        }
+    }
+
+    final class Handler4 implements Handler {
+        @Override public int handle(int event) {
+            return event >>> 1;
+        }
+    }
+
+    final class Handler5 implements Handler {
+        @Override public int handle(int event) {
+            return event * 5;
+        }
+    }
+
+    final class Handler6 implements Handler {
+        @Override public int handle(int event) {
+            return event | 6;
+        }
+    }
+
+    final class Handler7 implements Handler {
+        @Override public int handle(int event) {
+            return ~event;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Pierre C
+ * FFDSJ - Fast Fing Data Structures Java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.gmail.woodyc40.minimark.dispatch;
+
+/**
+ * How many receiver types each call site sees, which decides whether the JIT can inline the call
+ *
+ * <p>The forks of a run read it from the {@value #PROPERTY} property, so each run of the suite
+ * can use different call sites with the same unit.</p>
+ */
+public enum Morphism {
+    /** One type, inlined without a type check */
+    MONOMORPHIC(1),
+    /** Two types, inlined behind a type check */
+    BIMORPHIC(2),
+    /** More types than the JIT inlines, a virtual or interface call */
+    MEGAMORPHIC(Handler.TYPES);
+
+    /** The property naming the morphism of the run */
+    public static final String PROPERTY = "dispatch.morphism";
+
+    private final int types;
+
+    Morphism(int types) {
+        this.types = types;
+    }
+
+    /**
+     * The morphism of the current run
+     *
+     * @return the morphism named by {@value #PROPERTY}, monomorphic if it isn't set
+     */
+    public static Morphism current() {
+        return valueOf(System.getProperty(PROPERTY, MONOMORPHIC.name()));
+    }
+
+    /**
+     * The handlers to call in turn, going round the types
+     *
+     * @param n the amount of handlers
+     * @return the handlers
+     */
+    public Handler[] receivers(int n) {
+        Handler[] receivers = new Handler[n];
+        for (int i = 0; i < n; i++) {
+            receivers[i] = Handler.create(i % this.types);
+        }
+        return receivers;
+    }
+}